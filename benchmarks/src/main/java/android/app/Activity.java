@@ -0,0 +1,18 @@
+package android.app;
+
+import java.io.File;
+
+import android.content.Context;
+
+public class Activity extends Context {
+
+	public Activity(File cacheDir) {
+		super(cacheDir);
+	}
+
+	public void finish() {
+	}
+
+	public void setProgressBarIndeterminateVisibility(boolean visible) {
+	}
+}
@@ -0,0 +1,37 @@
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+public class ProgressDialog implements DialogInterface {
+
+	private boolean showing = false;
+
+	public ProgressDialog(Context context) {
+	}
+
+	public void setMessage(CharSequence message) {
+	}
+
+	public void setCancelable(boolean cancelable) {
+	}
+
+	public void setOnCancelListener(DialogInterface.OnCancelListener listener) {
+	}
+
+	public void show() {
+		this.showing = true;
+	}
+
+	public boolean isShowing() {
+		return this.showing;
+	}
+
+	public void cancel() {
+		this.showing = false;
+	}
+
+	public void dismiss() {
+		this.showing = false;
+	}
+}
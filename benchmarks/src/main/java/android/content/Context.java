@@ -0,0 +1,25 @@
+package android.content;
+
+import java.io.File;
+
+import android.content.res.Resources;
+
+/*
+ * Just enough of android.content.Context for the library to run on a plain JVM
+ */
+public class Context {
+
+	private File cacheDir;
+
+	public Context(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	public File getCacheDir() {
+		return this.cacheDir;
+	}
+
+	public Resources getResources() {
+		return new Resources();
+	}
+}
@@ -0,0 +1,10 @@
+package android.content;
+
+public interface DialogInterface {
+	public interface OnCancelListener {
+		public void onCancel(DialogInterface dialog);
+	}
+
+	public void cancel();
+	public void dismiss();
+}
@@ -0,0 +1,7 @@
+package android.content.res;
+
+public class Resources {
+	public String getString(int id) {
+		return Integer.toString(id);
+	}
+}
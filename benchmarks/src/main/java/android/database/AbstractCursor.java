@@ -0,0 +1,80 @@
+package android.database;
+
+/*
+ * Moves around like the real one does (mPos starts before the first row), without the observers and windows
+ */
+public abstract class AbstractCursor implements Cursor {
+
+	protected int mPos = -1;
+	protected boolean mClosed = false;
+
+	public abstract int getCount();
+
+	public abstract String [] getColumnNames();
+
+	public abstract String getString(int column);
+
+	public abstract short getShort(int column);
+
+	public abstract int getInt(int column);
+
+	public abstract long getLong(int column);
+
+	public abstract float getFloat(int column);
+
+	public abstract double getDouble(int column);
+
+	public abstract boolean isNull(int column);
+
+	public int getType(int column) {
+		return Cursor.FIELD_TYPE_STRING;
+	}
+
+	public final int getPosition() {
+		return this.mPos;
+	}
+
+	public final boolean moveToPosition(int position) {
+		int count = this.getCount();
+		if (position >= count) {
+			this.mPos = count;
+			return false;
+		}
+		if (position < 0) {
+			this.mPos = -1;
+			return false;
+		}
+		this.mPos = position;
+		return true;
+	}
+
+	public final boolean moveToFirst() {
+		return this.moveToPosition(0);
+	}
+
+	public final boolean moveToNext() {
+		return this.moveToPosition(this.mPos + 1);
+	}
+
+	public int getColumnIndex(String columnName) {
+		String [] columnNames = this.getColumnNames();
+		for (int i=0; i<columnNames.length; i++) {
+			if (columnNames[i].equalsIgnoreCase(columnName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getColumnCount() {
+		return this.getColumnNames().length;
+	}
+
+	public void close() {
+		this.mClosed = true;
+	}
+
+	public boolean isClosed() {
+		return this.mClosed;
+	}
+}
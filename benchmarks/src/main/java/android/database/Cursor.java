@@ -0,0 +1,49 @@
+package android.database;
+
+/*
+ * Just the parts of the real interface that the library's cursors use
+ */
+public interface Cursor {
+
+	public static final int FIELD_TYPE_NULL = 0;
+	public static final int FIELD_TYPE_INTEGER = 1;
+	public static final int FIELD_TYPE_FLOAT = 2;
+	public static final int FIELD_TYPE_STRING = 3;
+	public static final int FIELD_TYPE_BLOB = 4;
+
+	public int getCount();
+
+	public int getPosition();
+
+	public boolean moveToPosition(int position);
+
+	public boolean moveToFirst();
+
+	public boolean moveToNext();
+
+	public String [] getColumnNames();
+
+	public int getColumnIndex(String columnName);
+
+	public int getColumnCount();
+
+	public String getString(int columnIndex);
+
+	public short getShort(int columnIndex);
+
+	public int getInt(int columnIndex);
+
+	public long getLong(int columnIndex);
+
+	public float getFloat(int columnIndex);
+
+	public double getDouble(int columnIndex);
+
+	public int getType(int columnIndex);
+
+	public boolean isNull(int columnIndex);
+
+	public void close();
+
+	public boolean isClosed();
+}
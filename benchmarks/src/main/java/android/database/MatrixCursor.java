@@ -0,0 +1,72 @@
+package android.database;
+
+/*
+ * Stores the rows like the real one does (one Object[] grown as needed), so the benchmarks allocate the same way
+ */
+public class MatrixCursor {
+
+	private String [] columnNames;
+	private Object [] data;
+	private int rowCount = 0;
+
+	public MatrixCursor(String [] columnNames, int initialCapacity) {
+		this.columnNames = columnNames;
+		this.data = new Object[columnNames.length * Math.max(initialCapacity, 1)];
+	}
+
+	public MatrixCursor(String [] columnNames) {
+		this(columnNames, 16);
+	}
+
+	private void ensureCapacity(int size) {
+		if (size > this.data.length) {
+			Object [] grown = new Object[Math.max(size, this.data.length * 2)];
+			System.arraycopy(this.data, 0, grown, 0, this.data.length);
+			this.data = grown;
+		}
+	}
+
+	public RowBuilder newRow() {
+		this.rowCount++;
+		int end = this.rowCount * this.columnNames.length;
+		this.ensureCapacity(end);
+		return new RowBuilder(end - this.columnNames.length, end);
+	}
+
+	public void addRow(Object [] columnValues) {
+		int start = this.rowCount * this.columnNames.length;
+		this.rowCount++;
+		this.ensureCapacity(start + this.columnNames.length);
+		System.arraycopy(columnValues, 0, this.data, start, this.columnNames.length);
+	}
+
+	public int getCount() {
+		return this.rowCount;
+	}
+
+	public String [] getColumnNames() {
+		return this.columnNames;
+	}
+
+	public Object get(int row, int column) {
+		return this.data[row * this.columnNames.length + column];
+	}
+
+	public class RowBuilder {
+		private int index;
+		private int end;
+
+		RowBuilder(int index, int end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		public RowBuilder add(Object columnValue) {
+			if (this.index == this.end) {
+				throw new IllegalStateException("No more columns left.");
+			}
+			MatrixCursor.this.data[this.index++] = columnValue;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package android.os;
+
+import java.util.concurrent.Executor;
+
+/*
+ * Runs the whole task synchronously on the calling thread, so a benchmark iteration covers the full request
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+	public static final Executor THREAD_POOL_EXECUTOR = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private volatile boolean cancelled = false;
+
+	protected abstract Result doInBackground(Params... params);
+
+	protected void onPreExecute() {
+	}
+
+	protected void onPostExecute(Result result) {
+	}
+
+	protected void onProgressUpdate(Progress... values) {
+	}
+
+	protected void onCancelled() {
+	}
+
+	protected void onCancelled(Result result) {
+		this.onCancelled();
+	}
+
+	protected final void publishProgress(Progress... values) {
+		this.onProgressUpdate(values);
+	}
+
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		this.cancelled = true;
+		return true;
+	}
+
+	public final boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+		return this.executeOnExecutor(THREAD_POOL_EXECUTOR, params);
+	}
+
+	public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor executor, final Params... params) {
+		this.onPreExecute();
+		executor.execute(new Runnable() {
+			public void run() {
+				Result result = AsyncTask.this.doInBackground(params);
+				if (AsyncTask.this.cancelled) {
+					AsyncTask.this.onCancelled(result);
+				} else {
+					AsyncTask.this.onPostExecute(result);
+				}
+			}
+		});
+		return this;
+	}
+}
@@ -0,0 +1,66 @@
+package android.os;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+public class Bundle {
+
+	private HashMap<String, Object> values = new HashMap<String, Object>();
+
+	public boolean containsKey(String key) {
+		return this.values.containsKey(key);
+	}
+
+	public Object get(String key) {
+		return this.values.get(key);
+	}
+
+	public void remove(String key) {
+		this.values.remove(key);
+	}
+
+	public void putString(String key, String value) {
+		this.values.put(key, value);
+	}
+
+	public String getString(String key) {
+		Object value = this.values.get(key);
+		return (value instanceof String) ? (String)value : null;
+	}
+
+	public void putInt(String key, int value) {
+		this.values.put(key, value);
+	}
+
+	public int getInt(String key) {
+		Object value = this.values.get(key);
+		return (value instanceof Integer) ? (Integer)value : 0;
+	}
+
+	public void putLong(String key, long value) {
+		this.values.put(key, value);
+	}
+
+	public long getLong(String key) {
+		Object value = this.values.get(key);
+		return (value instanceof Long) ? (Long)value : 0;
+	}
+
+	public void putBoolean(String key, boolean value) {
+		this.values.put(key, value);
+	}
+
+	public boolean getBoolean(String key) {
+		Object value = this.values.get(key);
+		return (value instanceof Boolean) ? (Boolean)value : false;
+	}
+
+	public void putSerializable(String key, Serializable value) {
+		this.values.put(key, value);
+	}
+
+	public Serializable getSerializable(String key) {
+		Object value = this.values.get(key);
+		return (value instanceof Serializable) ? (Serializable)value : null;
+	}
+}
@@ -0,0 +1,54 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Messages and posted runnables run straight away on the calling thread, delayed ones on a timer thread
+ */
+public class Handler {
+
+	private static ScheduledExecutorService timer;
+
+	private Looper looper;
+
+	public Handler() {
+		this(Looper.myLooper());
+	}
+
+	public Handler(Looper looper) {
+		this.looper = looper;
+	}
+
+	public Looper getLooper() {
+		return this.looper;
+	}
+
+	public void handleMessage(Message msg) {
+	}
+
+	public void dispatchMessage(Message msg) {
+		this.handleMessage(msg);
+	}
+
+	public final boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		Handler.getTimer().schedule(r, delayMillis, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	public final void removeCallbacks(Runnable r) {
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (Handler.timer == null) {
+			Handler.timer = Executors.newSingleThreadScheduledExecutor();
+		}
+		return Handler.timer;
+	}
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+public class Looper {
+
+	private static final Looper main = new Looper();
+
+	public static Looper getMainLooper() {
+		return Looper.main;
+	}
+
+	public static Looper myLooper() {
+		return Looper.main;
+	}
+}
@@ -0,0 +1,33 @@
+package android.os;
+
+public class Message {
+
+	public int what;
+	public Object obj;
+
+	private Bundle data;
+	private Handler target;
+
+	public void setData(Bundle data) {
+		this.data = data;
+	}
+
+	public Bundle getData() {
+		if (this.data == null) {
+			this.data = new Bundle();
+		}
+		return this.data;
+	}
+
+	public void setTarget(Handler target) {
+		this.target = target;
+	}
+
+	public Handler getTarget() {
+		return this.target;
+	}
+
+	public void sendToTarget() {
+		this.target.dispatchMessage(this);
+	}
+}
@@ -0,0 +1,19 @@
+package com.manavo.rest.benchmarks;
+
+import android.app.Activity;
+
+import com.manavo.rest.RestApi;
+
+class BenchApi extends RestApi {
+
+	public BenchApi(Activity activity) {
+		super(activity);
+
+		this.BASE_URL = "/api/";
+		this.urlSuffix = ".json";
+	}
+
+	public void load(String url) {
+		this.get(url);
+	}
+}
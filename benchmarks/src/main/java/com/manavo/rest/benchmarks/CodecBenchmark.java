@@ -0,0 +1,76 @@
+package com.manavo.rest.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.manavo.rest.RestCodec;
+import com.manavo.rest.RestJsonCodec;
+import com.manavo.rest.RestStreamingCodec;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({"json", "streaming"})
+	public String codec;
+
+	@Param({"100", "1000"})
+	public int rows;
+
+	private RestCodec restCodec;
+	private String data;
+	private byte [] bytes;
+	private Object parsed;
+
+	@Setup
+	public void setup() throws Exception {
+		if ("streaming".equals(this.codec)) {
+			this.restCodec = new RestStreamingCodec();
+		} else {
+			this.restCodec = new RestJsonCodec();
+		}
+
+		this.data = Fixtures.items(this.rows);
+		this.bytes = this.data.getBytes("UTF-8");
+		this.parsed = this.restCodec.parse(this.data);
+	}
+
+	@Benchmark
+	public Object parseString() throws Exception {
+		return this.restCodec.parse(this.data);
+	}
+
+	@Benchmark
+	public Object parseStream() throws Exception {
+		return this.restCodec.parse(new ByteArrayInputStream(this.bytes));
+	}
+
+	@Benchmark
+	public String serialize() throws Exception {
+		return this.restCodec.serialize(this.parsed);
+	}
+
+	@Benchmark
+	public int write() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(this.bytes.length);
+		this.restCodec.write(this.parsed, out);
+		return out.size();
+	}
+}
@@ -0,0 +1,125 @@
+package com.manavo.rest.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.database.MatrixCursor;
+
+import com.manavo.rest.RestApi;
+import com.manavo.rest.RestColumnCursor;
+import com.manavo.rest.RestColumnStore;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CursorBenchmark {
+
+	private static final String [] KEYS = {"number", "title", "status", "score", "progress", "archived"};
+
+	@Param({"100", "1000"})
+	public int rows;
+
+	private BenchApi api;
+	private JSONArray data;
+	private RestColumnStore store;
+	private JSONObject filter;
+	private JSONObject dottedFilter;
+	private JSONObject arrayFilter;
+	private JSONObject replacement;
+
+	@Setup
+	public void setup() throws Exception {
+		this.api = new BenchApi(Fixtures.activity());
+		this.data = Fixtures.itemsArray(this.rows);
+		this.store = new RestColumnStore(this.data, KEYS);
+
+		this.filter = new JSONObject();
+		this.filter.put("status", "backlog");
+
+		this.dottedFilter = new JSONObject();
+		this.dottedFilter.put("created_by.id", 3);
+
+		this.arrayFilter = new JSONObject();
+		this.arrayFilter.put("tags", "api");
+
+		this.replacement = new JSONObject(this.data.getJSONObject(this.rows / 2).toString());
+		this.replacement.put("status", "completed");
+	}
+
+	@Benchmark
+	public MatrixCursor cursor() {
+		return this.api.jsonArrayToMatrixCursor(this.data, KEYS, "number");
+	}
+
+	@Benchmark
+	public MatrixCursor cursorWithFilter() {
+		return this.api.jsonArrayToMatrixCursor(this.data, KEYS, "number", this.filter);
+	}
+
+	@Benchmark
+	public MatrixCursor cursorWithDottedFilter() {
+		return this.api.jsonArrayToMatrixCursor(this.data, KEYS, "number", this.dottedFilter);
+	}
+
+	@Benchmark
+	public MatrixCursor cursorWithArrayFilter() {
+		return this.api.jsonArrayToMatrixCursor(this.data, KEYS, "number", this.arrayFilter);
+	}
+
+	@Benchmark
+	public RestColumnStore columnStoreBuild() throws Exception {
+		return new RestColumnStore(this.data, KEYS);
+	}
+
+	@Benchmark
+	public MatrixCursor columnStoreCursor() {
+		return this.store.toMatrixCursor("number");
+	}
+
+	@Benchmark
+	public MatrixCursor columnStoreCursorWithFilter() {
+		return this.store.toMatrixCursor("number", this.filter);
+	}
+
+	// walks the whole cursor, the values are only read from the columns as it goes
+	@Benchmark
+	public long columnCursor() {
+		RestColumnCursor c = this.store.toCursor("number");
+		long total = 0;
+		while (c.moveToNext()) {
+			total += c.getLong(0) + c.getString(2).length();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long columnCursorWithFilter() {
+		RestColumnCursor c = this.store.toCursor("number", this.filter);
+		long total = 0;
+		while (c.moveToNext()) {
+			total += c.getLong(0) + c.getString(2).length();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public JSONArray replaceObject() {
+		return RestApi.replaceObject(this.data, this.replacement, "number");
+	}
+}
@@ -0,0 +1,74 @@
+package com.manavo.rest.benchmarks;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.manavo.rest.RestEndpoint;
+
+/*
+ * Building a url from a compiled endpoint, against the string concatenation it replaced
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointBenchmark {
+
+	private static final RestEndpoint ITEMS = RestEndpoint.compile("products/{id}/items/{item}");
+
+	@Param({"0", "8"})
+	public int parameters;
+
+	private long id = 1234;
+	private String item = "backlog";
+	private List<NameValuePair> data = new ArrayList<NameValuePair>();
+
+	@Setup
+	public void setup() {
+		for (int i=0; i<this.parameters; i++) {
+			this.data.add(new BasicNameValuePair("param"+i, "value "+i));
+		}
+	}
+
+	@Benchmark
+	public String compiled() {
+		String url = "/api/"+EndpointBenchmark.ITEMS.expand(this.id, this.item)+".json";
+		if (this.data.size() > 0) {
+			url = RestEndpoint.addQuery(url, this.data);
+		}
+		return url;
+	}
+
+	// what RestApi.getEndpoint + RestRequest.get used to do
+	@Benchmark
+	public String concatenated() throws Exception {
+		String url = "/api/"+"products/"+this.id+"/items/"+this.item+".json";
+		if (this.data.size() > 0) {
+			url += "?";
+			for (int i=0; i<this.data.size(); i++) {
+				NameValuePair p = this.data.get(i);
+				url += p.getName() + "=" + URLEncoder.encode(p.getValue(), "utf-8") + "&";
+			}
+			url = url.substring(0, url.length()-1);
+		}
+		return url;
+	}
+}
@@ -0,0 +1,52 @@
+package com.manavo.rest.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.app.Activity;
+
+final class Fixtures {
+
+	private static final String [] STATUSES = {"someday", "backlog", "in-progress", "completed", "accepted"};
+
+	private Fixtures() {
+	}
+
+	// a list of items, shaped like the ones Sprint.ly returns
+	static String items(int count) {
+		StringBuilder json = new StringBuilder(count * 256);
+		json.append('[');
+		for (int i=0; i<count; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"number\":").append(i + 1)
+				.append(",\"title\":\"As a user, I want item ").append(i).append(" to be done\"")
+				.append(",\"status\":\"").append(STATUSES[i % STATUSES.length]).append('"')
+				.append(",\"score\":\"").append((i % 3 == 0) ? "S" : "M").append('"')
+				.append(",\"progress\":").append((i % 10) * 0.1)
+				.append(",\"created_at\":\"2012-0").append(1 + i % 9).append("-1").append(i % 10).append("T10:00:00+00:00\"")
+				.append(",\"created_by\":{\"id\":").append(i % 7).append(",\"first_name\":\"Philip\",\"last_name\":\"Manavopoulos\"}")
+				.append(",\"tags\":[\"android\",\"").append((i % 2 == 0) ? "api" : "ui").append("\"]")
+				.append(",\"archived\":").append(i % 5 == 0)
+				.append(",\"description\":null}");
+		}
+		json.append(']');
+		return json.toString();
+	}
+
+	static JSONArray itemsArray(int count) throws JSONException {
+		return new JSONArray(Fixtures.items(count));
+	}
+
+	static Activity activity() throws IOException {
+		File dir = File.createTempFile("restapi", "cache");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return new Activity(dir);
+	}
+}
@@ -0,0 +1,89 @@
+package com.manavo.rest.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+
+import com.manavo.rest.RestRequest;
+
+/*
+ * The whole of RestRequest.executeRequest (the AsyncTask shim runs it synchronously) against a local server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+	@Param({"100", "1000"})
+	public int rows;
+
+	private StubServer server;
+	private RestRequest rest;
+	private Bundle result;
+
+	@Setup
+	public void setup() throws Exception {
+		this.server = new StubServer(Fixtures.items(this.rows));
+
+		this.rest = new RestRequest();
+		this.rest.setHost("127.0.0.1");
+		this.rest.setPort(this.server.getPort());
+		this.rest.setSsl(false);
+		this.rest.setData(new ArrayList<NameValuePair>());
+		this.rest.setHandler(new Handler() {
+			public void handleMessage(Message msg) {
+				RequestBenchmark.this.result = msg.getData();
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.server.stop();
+	}
+
+	private String execute(String url) {
+		this.result = null;
+		this.rest.get(url);
+
+		if (this.result == null || this.result.containsKey("data") == false) {
+			throw new IllegalStateException("Request failed: "+((this.result != null) ? this.result.getString("error") : "no response"));
+		}
+		return this.result.getString("data");
+	}
+
+	@Benchmark
+	public String plain() {
+		return this.execute("/plain");
+	}
+
+	@Benchmark
+	public String gzip() {
+		return this.execute("/gzip");
+	}
+
+	@Benchmark
+	public String deflate() {
+		return this.execute("/deflate");
+	}
+}
@@ -0,0 +1,83 @@
+package com.manavo.rest.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.manavo.rest.RestCache;
+import com.manavo.rest.RestJsonCodec;
+import com.manavo.rest.RestStreamingCodec;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestCacheBenchmark {
+
+	@Param({"0", "8"})
+	public int parameters;
+
+	@Param({"100"})
+	public int rows;
+
+	private BenchApi api;
+	private String data;
+	private String query;
+	private RestJsonCodec jsonCodec = new RestJsonCodec();
+	private RestStreamingCodec streamingCodec = new RestStreamingCodec();
+
+	@Setup
+	public void setup() throws Exception {
+		this.api = new BenchApi(Fixtures.activity());
+		this.api.endpoint = this.api.getEndpoint("products/1234/items");
+		for (int i=0; i<this.parameters; i++) {
+			this.api.addParameter("param"+i, "value "+i);
+		}
+
+		this.data = Fixtures.items(this.rows);
+		this.query = this.api.endpoint+"?limit=100&offset=200&status=backlog";
+		RestCache.save(this.api, this.data);
+	}
+
+	@Benchmark
+	public String sha1() throws Exception {
+		return RestCache.SHA1(this.query);
+	}
+
+	@Benchmark
+	public boolean exists() {
+		return RestCache.exists(this.api);
+	}
+
+	@Benchmark
+	public String get() {
+		return RestCache.get(this.api);
+	}
+
+	@Benchmark
+	public Object readJsonCodec() {
+		return RestCache.read(this.api, this.jsonCodec);
+	}
+
+	@Benchmark
+	public Object readStreamingCodec() {
+		return RestCache.read(this.api, this.streamingCodec);
+	}
+
+	@Benchmark
+	public void save() {
+		RestCache.save(this.api, this.data);
+	}
+}
@@ -0,0 +1,89 @@
+package com.manavo.rest.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * An in-process HTTP server that serves the same body, plain on /plain, gzipped on /gzip and deflated on /deflate
+ */
+class StubServer {
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public StubServer(String body) throws IOException {
+		final byte [] plain = body.getBytes("UTF-8");
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(plain);
+		gzip.close();
+		final byte [] gzipped = compressed.toByteArray();
+
+		compressed = new ByteArrayOutputStream();
+		DeflaterOutputStream deflater = new DeflaterOutputStream(compressed);
+		deflater.write(plain);
+		deflater.close();
+		final byte [] deflated = compressed.toByteArray();
+
+		// otherwise Nagle + delayed ACKs add ~40ms to every response, and that's all we'd be measuring
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/plain", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				StubServer.respond(exchange, plain, null);
+			}
+		});
+		this.server.createContext("/gzip", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				StubServer.respond(exchange, gzipped, "gzip");
+			}
+		});
+
+		this.server.createContext("/deflate", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				StubServer.respond(exchange, deflated, "deflate");
+			}
+		});
+
+		this.executor = Executors.newFixedThreadPool(4);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	private static void respond(HttpExchange exchange, byte [] body, String encoding) throws IOException {
+		// drain the request, so the connection can be kept alive
+		while (exchange.getRequestBody().read() != -1) {
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		if (encoding != null) {
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+		}
+		exchange.sendResponseHeaders(200, body.length);
+
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
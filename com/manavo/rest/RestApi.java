@@ -1,5 +1,7 @@
 package com.manavo.rest;
 
+import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -12,11 +14,13 @@ import org.json.JSONObject;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.database.MatrixCursor;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 import android.widget.Toast;
@@ -24,10 +28,18 @@ import android.widget.Toast;
 
 public class RestApi {
 
+	protected Context context;
 	protected Activity activity;
 	protected RestRequest rest;
 	protected RestCallback callback;
 	protected RestErrorCallback errorCallback;
+	protected RestDeltaCallback deltaCallback;
+	protected RestUpdateCallback updateCallback;
+	protected String deltaId;
+	private JSONArray cachedArray;
+	protected RestTypedCallback<Object> typedCallback;
+	protected Class<?> typedType;
+	protected boolean typedList;
 	protected String BASE_URL;
 	protected String urlSuffix = "";
 	
@@ -36,77 +48,93 @@ public class RestApi {
 	private List<NameValuePair> parameters;
 	
 	protected int cachePolicy = RestCache.CachePolicy.IGNORE_CACHE;
+	protected boolean largeDownload = false;
+	protected boolean conditional = false;
+	
+	protected RestCodec codec = new RestJsonCodec();
+	protected RestCacheKey cacheKey = new RestCacheKey();
 	
 	public String endpoint = null;
 	
 	private String requestType = null;
 	
+	protected RestEventListener eventListener = null;
+	private RestCall call = null;
+	private RestEndpoint template = null;
+	
 	public RestApi(Activity activity) {
+		this((Context)activity);
+	}
+	
+	/*
+	 * Without an activity (e.g. in a service or a RestSyncEngine), there's no loading dialog, and errors
+	 * are logged rather than shown
+	 */
+	public RestApi(Context context) {
 		
-		this.activity = activity;
-		
-		this.reset();
+		this.context = context;
+		if (context instanceof Activity) {
+			this.activity = (Activity)context;
+		}
+		RestMemoryBudget.setDefaultSpillDirectory(context.getCacheDir());
 		
 		this.rest = new RestRequest();
 		
-		this.rest.setHandler(new Handler() {
+		this.reset();
+		
+		// results always come back on the main thread, even if the api was created somewhere else
+		this.rest.setHandler(new Handler(Looper.getMainLooper()) {
 			public void handleMessage(Message msg) {  
 				Bundle b = msg.getData();
+				String failure = null;
 				
-				if (b.containsKey("data") == true) {
-					String data = b.getString("data");
+				if (b.containsKey("parsed") == true) {
+					// parsed (and bound) on the background thread, and already in the cache if it's going there
+					Object returnObject = msg.obj;
+					boolean changed = (b.containsKey("changed") == true) ? b.getBoolean("changed") : true;
 					
-					try {
-						if (data == null) {
-							RestApi.this.onSuccess(null);
-						} else if (data.trim().substring(0, 1).equalsIgnoreCase("{") == true) {
-							Object returnObject = new JSONObject(data);
-							
-							// we want to save the cache
-							if (RestApi.this.requestType.equalsIgnoreCase("get") == true && RestApi.this.cachePolicy != RestCache.CachePolicy.IGNORE_CACHE) {
-								RestCache.save(RestApi.this, data.trim());
-							}
-							
-							if (RestApi.this.cachePolicy != RestCache.CachePolicy.UPDATE_CACHE) {
-								RestApi.this.onSuccess(returnObject);
-							}
-						} else if (data.trim().substring(0, 1).equalsIgnoreCase("[") == true) {
-							Object returnObject = new JSONArray(data);
-							
-							// we want to save the cache
-							if (RestApi.this.requestType.equalsIgnoreCase("get") == true && RestApi.this.cachePolicy != RestCache.CachePolicy.IGNORE_CACHE) {
-								RestCache.save(RestApi.this, data.trim());
-							}
-							
-							if (RestApi.this.cachePolicy != RestCache.CachePolicy.UPDATE_CACHE) {
-								RestApi.this.onSuccess(returnObject);
-							}
+					if (returnObject instanceof String) {
+						// incorrect format
+						Log.d("RestApi", returnObject.toString());
+						//RestApi.this.onError("Unknown format of data");
+					}
+					
+					if (RestApi.this.cachePolicy == RestCache.CachePolicy.UPDATE_CACHE) {
+						RestApi.this.onCacheUpdated(changed);
+					} else if (returnObject != null && RestApi.this.typedCallback != null) {
+						RestApi.this.onTypedSuccess(returnObject);
+					} else if (returnObject instanceof JSONArray && RestApi.this.deltaCallback != null && RestApi.this.cachedArray != null) {
+						RestApi.this.onDelta((JSONArray)returnObject);
+					} else {
+						RestApi.this.onSuccess(returnObject);
+					}
+				} else if (b.containsKey("cacheUpdated") == true) {
+					// an UPDATE_CACHE refresh, already written to the cache on the background thread
+					RestApi.this.onCacheUpdated(b.getBoolean("cacheUpdated"));
+				} else if (b.containsKey("notModified") == true) {
+					// what we have cached is still current
+					if (RestApi.this.cachePolicy == RestCache.CachePolicy.UPDATE_CACHE) {
+						RestApi.this.onCacheUpdated(false);
+					} else if (RestApi.this.cachePolicy != RestCache.CachePolicy.CACHE_THEN_NETWORK) {
+						// (with cache then network, it's already been delivered) the cached copy, read and bound on the background thread
+						if (RestApi.this.typedCallback != null) {
+							RestApi.this.onTypedSuccess(msg.obj);
 						} else {
-							// incorrect format
-							Log.d("RestApi", data.toString());
-							//RestApi.this.onError("Unknown format of data");
-                            // we want to save the cache
-                            if (RestApi.this.requestType.equalsIgnoreCase("get") == true && RestApi.this.cachePolicy != RestCache.CachePolicy.IGNORE_CACHE) {
-                                RestCache.save(RestApi.this, data.trim());
-                            }
-
-                            if (RestApi.this.cachePolicy != RestCache.CachePolicy.UPDATE_CACHE) {
-                                RestApi.this.onSuccess(data);
-                            }
+							RestApi.this.onSuccess(msg.obj);
 						}
-					} catch (JSONException e) {
-						e.printStackTrace();
-						
-						RestApi.this.onError(e.getMessage());
 					}
 				} else if (b.containsKey("error") == true) {
+					failure = b.getString("error");
 					RestApi.this.onError(b.getString("error"));
 				} else if (b.containsKey("statusCodeError") == true && b.containsKey("statusCodeErrorNumber") == true) {
+					failure = "HTTP "+b.getInt("statusCodeErrorNumber");
 					RestApi.this.onStatusCodeError(b.getInt("statusCodeErrorNumber"), b.getString("statusCodeError"));
 				} else {
+					failure = "Misconfigured code";
 					RestApi.this.onError("Misconfigured code");
 				}
 				
+				RestApi.this.callFinished(failure);
 				RestApi.this.reset();
 				RestApi.this.hideLoadingDialog();
 			}
@@ -117,14 +145,40 @@ public class RestApi {
 		this.cachePolicy = cachePolicy;
 	}
 	
+	/*
+	 * For big responses on slow connections. The next get is written straight into its cache file rather
+	 * than memory, and if it gets interrupted, trying again carries on from where it stopped.
+	 */
+	public void setLargeDownload(boolean largeDownload) {
+		this.largeDownload = largeDownload;
+	}
+	
+	/*
+	 * Remember the ETag/Last-Modified of what's cached, and ask the server to only send the response if
+	 * it changed. Also skips rewriting the cache file if the same data comes back anyway.
+	 */
+	public void setConditional(boolean conditional) {
+		this.conditional = conditional;
+	}
+	
 	public void reset() {
 		this.loadingMessage = "Loading...";
 		this.callback = null;
 		this.errorCallback = null;
+		this.deltaCallback = null;
+		this.updateCallback = null;
+		this.deltaId = null;
+		this.cachedArray = null;
+		this.typedCallback = null;
+		this.typedType = null;
+		this.typedList = false;
 		this.endpoint = null;
 		this.cachePolicy = RestCache.CachePolicy.IGNORE_CACHE;
+		this.largeDownload = false;
+		this.conditional = false;
 		
 		this.parameters = new ArrayList<NameValuePair>();
+		this.rest.clearBody();
 	}
 
 	public void addParameter(String name, Object value) {
@@ -136,7 +190,7 @@ public class RestApi {
 	}
 	
 	public void setLoadingMessage(int messageId) {
-		this.loadingMessage = this.activity.getResources().getString(messageId);
+		this.loadingMessage = this.context.getResources().getString(messageId);
 	}
 	
 	public List<NameValuePair> getParameters() {
@@ -144,7 +198,7 @@ public class RestApi {
 	}
 	
 	public void showLoadingDialog() {
-		if (this.loadingMessage != null) {
+		if (this.loadingMessage != null && this.activity != null) {
 			this.progressDialog = new ProgressDialog(this.activity);
 			this.progressDialog.setMessage(this.loadingMessage);
 			this.progressDialog.setCancelable(true);
@@ -163,6 +217,7 @@ public class RestApi {
 	
 	public void cancelRequest() {
 		this.rest.cancelRequest();
+		this.callFinished("Request cancelled");
 		this.hideLoadingDialog();
 	}
 	
@@ -180,7 +235,9 @@ public class RestApi {
 	}
 	
 	protected void setProgressBarIndeterminateVisibility(boolean visible) {
-		this.activity.setProgressBarIndeterminateVisibility(false);
+		if (this.activity != null) {
+			this.activity.setProgressBarIndeterminateVisibility(false);
+		}
 	}
 	
 	public void removeProgressDialog() {
@@ -196,20 +253,162 @@ public class RestApi {
 		this.rest.setUserAgent(agent);
 	}
 	
+	public void setHeader(String name, String value) {
+		this.rest.setHeader(name, value);
+	}
+	
+	// e.g. new RestCacheKey().exclude("timestamp").vary("Accept-Language")
+	public void setCacheKey(RestCacheKey cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+	
+	public RestCacheKey getCacheKey() {
+		return this.cacheKey;
+	}
+	
+	@Deprecated
 	public void acceptAllSslCertificates() {
 		this.rest.acceptAllSslCertificates();
 	}
 	
+	// call once the host/ports are set (e.g. at the end of your constructor), so the first request finds a connection ready
+	public void warmUp() {
+		this.rest.warmUp();
+	}
+	
+	public void setBody(File file, String contentType) {
+		this.rest.setBody(file, contentType);
+	}
+	
+	public void setBody(InputStream in, long length, String contentType) {
+		this.rest.setBody(in, length, contentType);
+	}
+	
+	public void setChunkedRequests(boolean chunked) {
+		this.rest.setChunked(chunked);
+	}
+	
+	public void setGzipRequests(boolean gzip) {
+		this.rest.setGzipRequests(gzip);
+	}
+	
+	public void setDeadline(long millis) {
+		this.rest.setDeadline(millis);
+	}
+	
+	public void setHostLimits(boolean enabled) {
+		this.rest.setHostLimits(enabled);
+	}
+	
+	public void setEventListener(RestEventListener listener) {
+		this.eventListener = listener;
+		this.rest.setEventListener(listener);
+	}
+	
+	private void startCall() {
+		if (this.eventListener != null) {
+			String key = (this.template != null) ? this.getEndpoint(this.template.getTemplate()) : null;
+			this.call = new RestCall(this.requestType.toUpperCase(), this.endpoint, key);
+			this.rest.setCall(this.call);
+		}
+		this.template = null;
+	}
+	
+	private void callCacheLookup(boolean hit) {
+		if (this.call != null) {
+			this.call.cacheHit = hit;
+			this.eventListener.cacheLookup(this.call, hit);
+		}
+	}
+	
+	private void callFinished(String failure) {
+		if (this.call != null) {
+			this.call.finishedAt = System.nanoTime();
+			if (failure == null) {
+				this.eventListener.delivered(this.call);
+			} else {
+				this.eventListener.failed(this.call, failure);
+			}
+			this.call = null;
+		}
+	}
+	
+	public void setDebug(boolean debug) {
+		this.rest.setDebug(debug);
+	}
+	
+	public void setCodec(RestCodec codec) {
+		this.codec = codec;
+		this.rest.setCodec(codec);
+	}
+	
 	public RestApi setCallback(RestCallback callback) {
 		this.callback = callback;
 		return this;
 	}
 	
+	@SuppressWarnings("unchecked")
+	public <T> RestApi setCallback(Class<T> type, RestTypedCallback<T> callback) {
+		this.typedType = type;
+		this.typedList = false;
+		this.typedCallback = (RestTypedCallback<Object>)callback;
+		return this;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> RestApi setListCallback(Class<T> type, RestTypedCallback<List<T>> callback) {
+		this.typedType = type;
+		this.typedList = true;
+		this.typedCallback = (RestTypedCallback<Object>)(Object)callback;
+		return this;
+	}
+	
+	// with UPDATE_CACHE, called once the cache has been refreshed (changed is false if the data was the same)
+	public RestApi setUpdateCallback(RestUpdateCallback updateCallback) {
+		this.updateCallback = updateCallback;
+		return this;
+	}
+	
 	public RestApi setErrorCallback(RestErrorCallback errorCallback) {
 		this.errorCallback = errorCallback;
 		return this;
 	}
 	
+	/*
+	 * With CACHE_THEN_NETWORK, the network response for a list is compared to the cached one by the id key,
+	 * and only the changes are passed to the callback (instead of calling success a second time)
+	 */
+	public RestApi setDeltaCallback(String id, RestDeltaCallback deltaCallback) {
+		this.deltaId = id;
+		this.deltaCallback = deltaCallback;
+		return this;
+	}
+	
+	// the response is already in the cache (with its validators), so this only has to work out what to deliver
+	protected void onDelta(JSONArray data) {
+		RestDelta delta;
+		try {
+			delta = RestDelta.diff(this.cachedArray, data, this.deltaId);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			
+			// can't diff it, so just treat it as a normal response
+			this.onSuccess(data);
+			return;
+		}
+		
+		if (delta.isFull() == true) {
+			// can't be matched up by id, so deliver the whole list
+			this.onSuccess(data);
+			return;
+		}
+		
+		// nothing changed, so the UI is already up to date
+		if (delta.isEmpty() == false) {
+			this.deltaCallback.changed(data, delta);
+		}
+	}
+	
 	public void onSuccess(Object obj) {
 		if (this.callback != null) {
 			this.callback.success(obj);
@@ -218,11 +417,23 @@ public class RestApi {
 		}
 	}
 	
+	public void onTypedSuccess(Object obj) {
+		if (this.typedCallback != null) {
+			this.typedCallback.success(obj);
+		}
+	}
+	
+	public void onCacheUpdated(boolean changed) {
+		if (this.updateCallback != null) {
+			this.updateCallback.updated(changed);
+		}
+	}
+	
 	public void onStatusCodeError(int code, String data) {
 		if (this.errorCallback != null) {
 			this.errorCallback.error(data);
 		} else {
-			Toast.makeText(this.activity, data, Toast.LENGTH_LONG).show();			
+			this.showError(data);
 		}
 	}
 	
@@ -230,7 +441,16 @@ public class RestApi {
 		if (this.errorCallback != null) {
 			this.errorCallback.error(message);
 		} else {
+			this.showError(message);
+		}
+	}
+	
+	protected void showError(String message) {
+		if (this.activity != null) {
 			Toast.makeText(this.activity, message, Toast.LENGTH_LONG).show();
+		} else {
+			// nobody to show it to
+			Log.w("RestApi", message);
 		}
 	}
 	
@@ -240,28 +460,39 @@ public class RestApi {
 		this.requestType = "get";
 		
 		this.endpoint = this.getEndpoint(url);
+		this.startCall();
 		
 		if (this.cachePolicy == RestCache.CachePolicy.CACHE_THEN_NETWORK || this.cachePolicy == RestCache.CachePolicy.CACHE_ELSE_NETWORK) {
 			if (RestCache.exists(this) == true) {
-				String data = RestCache.get(this);
-				try {
-					if (data.trim().substring(0, 1).equalsIgnoreCase("{") == true) {
-						Object returnObject = new JSONObject(data);
-						gotCache = true;
-						RestApi.this.onSuccess(returnObject);
-					} else if (data.trim().substring(0, 1).equalsIgnoreCase("[") == true) {
-						Object returnObject = new JSONArray(data);
+				// parsed straight from the cache file, no need to read it into a String first
+				Object returnObject = RestCache.read(this, this.codec);
+				if (this.typedCallback != null && (returnObject instanceof JSONObject || returnObject instanceof JSONArray)) {
+					try {
+						Object bound = RestBinder.bind(returnObject, this.typedType, this.typedList);
 						gotCache = true;
-						RestApi.this.onSuccess(returnObject);
+						this.onTypedSuccess(bound);
+					} catch (JSONException e) {
+						e.printStackTrace();
 					}
-				} catch (JSONException e) {
-					e.printStackTrace();
+				} else if (returnObject instanceof JSONObject) {
+					gotCache = true;
+					RestApi.this.onSuccess(returnObject);
+				} else if (returnObject instanceof JSONArray) {
+					gotCache = true;
+					if (this.deltaCallback != null && this.cachePolicy == RestCache.CachePolicy.CACHE_THEN_NETWORK) {
+						// keep it, so we can diff the network response against it
+						this.cachedArray = (JSONArray)returnObject;
+					}
+					RestApi.this.onSuccess(returnObject);
 				}
 			}
+			
+			this.callCacheLookup(gotCache);
 		}
 		
 		if (this.cachePolicy == RestCache.CachePolicy.CACHE_ELSE_NETWORK && gotCache == true) {
 			// no need to load anything, we got if from the cache, so all done
+			this.callFinished(null);
 		} else {
 			if (gotCache == false && this.cachePolicy != RestCache.CachePolicy.UPDATE_CACHE) {
 				this.showLoadingDialog();
@@ -271,6 +502,25 @@ public class RestApi {
 			}
 			
 			this.rest.setData(this.parameters);
+			this.rest.setBinding(this.typedType, this.typedList);
+			if (this.conditional == true && this.cachePolicy != RestCache.CachePolicy.IGNORE_CACHE && RestCache.exists(this) == true) {
+				String [] validators = RestCache.readValidators(this);
+				if (validators != null) {
+					this.rest.setValidators(validators[0], validators[1]);
+					// with cache then network it's been delivered already, and update cache doesn't deliver anything
+					this.rest.setCachedCopy(RestCache.getFile(this), this.cachePolicy != RestCache.CachePolicy.CACHE_THEN_NETWORK && this.cachePolicy != RestCache.CachePolicy.UPDATE_CACHE);
+				}
+			}
+			if (this.largeDownload == true) {
+				this.rest.setDownloadFile(RestCache.getFile(this));
+			}
+			if (this.cachePolicy == RestCache.CachePolicy.UPDATE_CACHE && RestCache.getFile(this) != null) {
+				// nobody is waiting for the data, so it only goes into the cache
+				this.rest.setCacheUpdate(RestCache.getFile(this), this.conditional);
+			} else if (this.cachePolicy != RestCache.CachePolicy.IGNORE_CACHE && RestCache.getFile(this) != null) {
+				// written to the cache on the background thread, from the same bytes it's parsed from
+				this.rest.setCacheFile(RestCache.getFile(this), this.conditional);
+			}
 			this.rest.get(this.endpoint);
 		}
 	}
@@ -279,9 +529,11 @@ public class RestApi {
 		this.requestType = "post";
 		
 		this.endpoint = this.getEndpoint(url);
+		this.startCall();
 		
 		this.showLoadingDialog();
 		this.rest.setData(this.parameters);
+		this.rest.setBinding(this.typedType, this.typedList);
 		this.rest.post(this.endpoint);
 	}
 	
@@ -289,9 +541,11 @@ public class RestApi {
 		this.requestType = "put";
 		
 		this.endpoint = this.getEndpoint(url);
+		this.startCall();
 		
 		this.showLoadingDialog();
 		this.rest.setData(this.parameters);
+		this.rest.setBinding(this.typedType, this.typedList);
 		this.rest.put(this.endpoint);
 	}
 	
@@ -299,11 +553,37 @@ public class RestApi {
 		this.requestType = "delete";
 		
 		this.endpoint = this.getEndpoint(url);
+		this.startCall();
 		
 		this.showLoadingDialog();
+		this.rest.setBinding(this.typedType, this.typedList);
 		this.rest.delete(this.endpoint);
 	}
 	
+	/*
+	 * Same as the ones taking a url, but for a compiled endpoint and the values for its placeholders, e.g.
+	 * this.get(ITEMS, productId) with ITEMS = RestEndpoint.compile("products/{id}/items")
+	 */
+	protected void get(RestEndpoint endpoint, Object... values) {
+		this.template = endpoint;
+		this.get(endpoint.expand(values));
+	}
+	
+	protected void post(RestEndpoint endpoint, Object... values) {
+		this.template = endpoint;
+		this.post(endpoint.expand(values));
+	}
+	
+	protected void put(RestEndpoint endpoint, Object... values) {
+		this.template = endpoint;
+		this.put(endpoint.expand(values));
+	}
+	
+	protected void delete(RestEndpoint endpoint, Object... values) {
+		this.template = endpoint;
+		this.delete(endpoint.expand(values));
+	}
+	
 	public String getEndpoint(String part) {
 		return BASE_URL + part + this.urlSuffix;
 	}
@@ -312,6 +592,19 @@ public class RestApi {
 		return this.jsonArrayToMatrixCursor(data, keys, keyToBeId, null);
 	}
 	
+	public RestColumnStore jsonArrayToColumnStore(JSONArray data, String [] keys) {
+		if (data == null) {
+			return null;
+		}
+
+		try {
+			return new RestColumnStore(data, keys);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	public JSONObject getObjectFromCursor(JSONArray data, String key, long value) {
 		JSONObject returnData = null;
 		
@@ -0,0 +1,287 @@
+package com.manavo.rest;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Binds JSON responses into plain classes. Public and private fields are bound by name (or by @RestField),
+ * static and transient fields are skipped. The reflection lookups are done once per class and kept.
+ */
+public class RestBinder {
+
+	private static final int KIND_INT = 0;
+	private static final int KIND_LONG = 1;
+	private static final int KIND_DOUBLE = 2;
+	private static final int KIND_FLOAT = 3;
+	private static final int KIND_BOOLEAN = 4;
+	private static final int KIND_SHORT = 5;
+	private static final int KIND_BYTE = 6;
+	private static final int KIND_OBJECT = 7;
+
+	private static final ConcurrentHashMap<Class<?>, ClassBinding> bindings = new ConcurrentHashMap<Class<?>, ClassBinding>();
+
+	public static <T> T bind(JSONObject data, Class<T> type) throws JSONException {
+		return type.cast(RestBinder.bindValue(data, type, type));
+	}
+
+	public static <T> List<T> bindList(JSONArray data, Class<T> type) throws JSONException {
+		List<T> list = new ArrayList<T>(data.length());
+		for (int i=0; i<data.length(); i++) {
+			list.add(type.cast(RestBinder.bindValue(data.get(i), type, type)));
+		}
+		return list;
+	}
+
+	public static Object bind(Object data, Class<?> type, boolean list) throws JSONException {
+		if (list) {
+			if (data instanceof JSONArray == false) {
+				throw new JSONException("Expected a JSONArray to bind to a list of "+type.getName());
+			}
+			return RestBinder.bindList((JSONArray)data, type);
+		} else {
+			if (data instanceof JSONObject == false) {
+				throw new JSONException("Expected a JSONObject to bind to "+type.getName());
+			}
+			return RestBinder.bind((JSONObject)data, type);
+		}
+	}
+
+	private static ClassBinding getBinding(Class<?> type) throws JSONException {
+		ClassBinding binding = RestBinder.bindings.get(type);
+		if (binding == null) {
+			binding = new ClassBinding(type);
+			RestBinder.bindings.putIfAbsent(type, binding);
+		}
+		return binding;
+	}
+
+	private static Object bindValue(Object value, Class<?> type, Type genericType) throws JSONException {
+		if (value == null || value == JSONObject.NULL) {
+			return null;
+		}
+
+		if (type == String.class) {
+			return value.toString();
+		} else if (type == Integer.class || type == int.class) {
+			return RestBinder.toNumber(value).intValue();
+		} else if (type == Long.class || type == long.class) {
+			return RestBinder.toNumber(value).longValue();
+		} else if (type == Double.class || type == double.class) {
+			return RestBinder.toNumber(value).doubleValue();
+		} else if (type == Float.class || type == float.class) {
+			return RestBinder.toNumber(value).floatValue();
+		} else if (type == Short.class || type == short.class) {
+			return RestBinder.toNumber(value).shortValue();
+		} else if (type == Byte.class || type == byte.class) {
+			return RestBinder.toNumber(value).byteValue();
+		} else if (type == Boolean.class || type == boolean.class) {
+			return RestBinder.toBoolean(value);
+		} else if (type == Object.class || type.isInstance(value)) {
+			// JSONObject/JSONArray fields just get the raw data
+			return value;
+		} else if (type.isArray()) {
+			JSONArray array = RestBinder.toArray(value);
+			Class<?> componentType = type.getComponentType();
+			Object result = Array.newInstance(componentType, array.length());
+			for (int i=0; i<array.length(); i++) {
+				Object element = RestBinder.bindValue(array.get(i), componentType, componentType);
+				// nulls in an int[] and the like are left as 0, the same as a null field keeps its default
+				if (element == null && componentType.isPrimitive()) {
+					continue;
+				}
+				try {
+					Array.set(result, i, element);
+				} catch (IllegalArgumentException e) {
+					throw new JSONException("Can't bind "+element.getClass().getSimpleName()+" to "+componentType.getName());
+				}
+			}
+			return result;
+		} else if (List.class.isAssignableFrom(type)) {
+			JSONArray array = RestBinder.toArray(value);
+			Class<?> elementType = Object.class;
+			Type elementGenericType = Object.class;
+			if (genericType instanceof ParameterizedType) {
+				elementGenericType = ((ParameterizedType)genericType).getActualTypeArguments()[0];
+				if (elementGenericType instanceof Class) {
+					elementType = (Class<?>)elementGenericType;
+				} else if (elementGenericType instanceof ParameterizedType) {
+					elementType = (Class<?>)((ParameterizedType)elementGenericType).getRawType();
+				}
+			}
+			List<Object> list = new ArrayList<Object>(array.length());
+			for (int i=0; i<array.length(); i++) {
+				list.add(RestBinder.bindValue(array.get(i), elementType, elementGenericType));
+			}
+			return list;
+		} else if (value instanceof JSONObject) {
+			return RestBinder.getBinding(type).bind((JSONObject)value);
+		} else {
+			throw new JSONException("Can't bind "+value.getClass().getSimpleName()+" to "+type.getName());
+		}
+	}
+
+	private static Number toNumber(Object value) throws JSONException {
+		if (value instanceof Number) {
+			return (Number)value;
+		}
+		String text = value.toString().trim();
+		try {
+			// same as org.json's getInt/getLong, numbers sent as strings are fine too
+			// (integers are parsed as longs first, string ids are often bigger than a double can hold exactly)
+			return Long.valueOf(text);
+		} catch (NumberFormatException e) {
+			try {
+				return Double.valueOf(text);
+			} catch (NumberFormatException e2) {
+				throw new JSONException("Expected a number but got "+value);
+			}
+		}
+	}
+
+	private static boolean toBoolean(Object value) throws JSONException {
+		if (value instanceof Boolean) {
+			return ((Boolean)value).booleanValue();
+		} else if ("true".equalsIgnoreCase(value.toString())) {
+			return true;
+		} else if ("false".equalsIgnoreCase(value.toString())) {
+			return false;
+		}
+		throw new JSONException("Expected a boolean but got "+value);
+	}
+
+	private static JSONArray toArray(Object value) throws JSONException {
+		if (value instanceof JSONArray) {
+			return (JSONArray)value;
+		}
+		throw new JSONException("Expected a JSONArray but got "+value);
+	}
+
+	private static class ClassBinding {
+		private Constructor<?> constructor;
+		private FieldBinding [] fields;
+
+		public ClassBinding(Class<?> type) throws JSONException {
+			try {
+				this.constructor = type.getDeclaredConstructor();
+				this.constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new JSONException(type.getName()+" needs a constructor with no arguments to be bound");
+			} catch (SecurityException e) {
+				throw new JSONException("Could not access the constructor of "+type.getName()+": "+e.getMessage());
+			}
+
+			List<FieldBinding> fields = new ArrayList<FieldBinding>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic()) {
+						continue;
+					}
+					try {
+						field.setAccessible(true);
+					} catch (SecurityException e) {
+						throw new JSONException("Could not access "+field.getName()+" in "+type.getName()+": "+e.getMessage());
+					}
+					fields.add(new FieldBinding(field));
+				}
+			}
+			this.fields = fields.toArray(new FieldBinding[fields.size()]);
+		}
+
+		public Object bind(JSONObject data) throws JSONException {
+			Object target;
+			try {
+				target = this.constructor.newInstance();
+			} catch (Exception e) {
+				throw new JSONException("Could not create "+this.constructor.getDeclaringClass().getName()+": "+e.getMessage());
+			}
+
+			for (FieldBinding field : this.fields) {
+				if (data.has(field.name) && data.isNull(field.name) == false) {
+					field.set(target, data.get(field.name));
+				}
+			}
+
+			return target;
+		}
+	}
+
+	private static class FieldBinding {
+		private Field field;
+		private String name;
+		private int kind;
+
+		public FieldBinding(Field field) {
+			this.field = field;
+
+			RestField annotation = field.getAnnotation(RestField.class);
+			this.name = (annotation != null) ? annotation.value() : field.getName();
+
+			Class<?> type = field.getType();
+			if (type == int.class) {
+				this.kind = KIND_INT;
+			} else if (type == long.class) {
+				this.kind = KIND_LONG;
+			} else if (type == double.class) {
+				this.kind = KIND_DOUBLE;
+			} else if (type == float.class) {
+				this.kind = KIND_FLOAT;
+			} else if (type == boolean.class) {
+				this.kind = KIND_BOOLEAN;
+			} else if (type == short.class) {
+				this.kind = KIND_SHORT;
+			} else if (type == byte.class) {
+				this.kind = KIND_BYTE;
+			} else {
+				this.kind = KIND_OBJECT;
+			}
+		}
+
+		public void set(Object target, Object value) throws JSONException {
+			try {
+				// primitives are set directly, so we don't box them again
+				switch (this.kind) {
+					case KIND_INT:
+						this.field.setInt(target, RestBinder.toNumber(value).intValue());
+						break;
+					case KIND_LONG:
+						this.field.setLong(target, RestBinder.toNumber(value).longValue());
+						break;
+					case KIND_DOUBLE:
+						this.field.setDouble(target, RestBinder.toNumber(value).doubleValue());
+						break;
+					case KIND_FLOAT:
+						this.field.setFloat(target, RestBinder.toNumber(value).floatValue());
+						break;
+					case KIND_BOOLEAN:
+						this.field.setBoolean(target, RestBinder.toBoolean(value));
+						break;
+					case KIND_SHORT:
+						this.field.setShort(target, RestBinder.toNumber(value).shortValue());
+						break;
+					case KIND_BYTE:
+						this.field.setByte(target, RestBinder.toNumber(value).byteValue());
+						break;
+					default:
+						this.field.set(target, RestBinder.bindValue(value, this.field.getType(), this.field.getGenericType()));
+				}
+			} catch (IllegalAccessException e) {
+				throw new JSONException("Could not set "+this.name+": "+e.getMessage());
+			} catch (IllegalArgumentException e) {
+				// e.g. a LinkedList field, we only make ArrayLists
+				throw new JSONException("Could not set "+this.name+": "+e.getMessage());
+			}
+		}
+	}
+}
@@ -1,19 +1,22 @@
 package com.manavo.rest;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.List;
 
-import org.apache.http.NameValuePair;
+import org.json.JSONException;
 
 import android.content.Context;
 
@@ -24,7 +27,7 @@ public class RestCache {
 		if (hash == null) {
 			return false;
 		} else {
-			File file = RestCache.getFile(api.activity, hash);
+			File file = RestCache.getFile(api.context, hash);
 			return file.exists();
 		}
 	}
@@ -34,7 +37,7 @@ public class RestCache {
 		if (hash == null) {
 			return null;
 		} else {
-			File file = RestCache.getFile(api.activity, hash);
+			File file = RestCache.getFile(api.context, hash);
 			
 			BufferedReader r;
 			try {
@@ -59,20 +62,172 @@ public class RestCache {
 		}
 	}
 	
-	public static void save(RestApi api, String data) {
+	public static Object read(RestApi api, RestCodec codec) {
 		String hash = RestCache.getRequestHash(api);
-		
-		if (hash != null) {
-			File file = RestCache.getFile(api.activity, hash);
-			BufferedWriter out;
+		if (hash == null) {
+			return null;
+		} else {
+			File file = RestCache.getFile(api.context, hash);
+			
 			try {
-				out = new BufferedWriter(new FileWriter(file), 1024);
-				out.write(data);
-				out.close();
+				return RestCache.read(file, codec);
 			} catch (IOException e) {
 				e.printStackTrace();
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+			
+			return null;
+		}
+	}
+	
+	public static Object read(File file, RestCodec codec) throws IOException, JSONException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return codec.parse(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	// where the response for this request lives, so large downloads can be written straight into it
+	static File getFile(RestApi api) {
+		String hash = RestCache.getRequestHash(api);
+		if (hash == null) {
+			return null;
+		} else {
+			return RestCache.getFile(api.context, hash);
+		}
+	}
+	
+	/*
+	 * The ETag, Last-Modified and SHA1 of the cached response, kept next to it in a .meta file.
+	 * Any of them can be null, and it returns null if there's no .meta file.
+	 */
+	static String [] readValidators(RestApi api) {
+		File file = RestCache.getFile(api);
+		if (file == null) {
+			return null;
+		}
+		return RestCache.readValidators(file);
+	}
+	
+	static String [] readValidators(File file) {
+		File meta = new File(file.getPath()+".meta");
+		if (meta.exists() == false) {
+			return null;
+		}
+		
+		String [] validators = new String[3];
+		try {
+			BufferedReader r = new BufferedReader(new FileReader(meta));
+			for (int i=0; i<validators.length; i++) {
+				String line = r.readLine();
+				validators[i] = (line != null && line.length() > 0) ? line : null;
 			}
+			r.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
 		}
+		return validators;
+	}
+	
+	static void saveValidators(File file, String etag, String lastModified, String digest) {
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(file.getPath()+".meta"));
+			out.write((etag != null) ? etag : "");
+			out.write('\n');
+			out.write((lastModified != null) ? lastModified : "");
+			out.write('\n');
+			out.write((digest != null) ? digest : "");
+			out.write('\n');
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public static void save(RestApi api, String data) {
+		String hash = RestCache.getRequestHash(api);
+		
+		if (hash != null) {
+			RestCache.write(RestCache.getFile(api.context, hash), data);
+		}
+	}
+	
+	// as UTF-8 whatever the default charset is, the codecs read it back as that
+	private static void write(File file, String data) {
+		BufferedWriter out;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1024);
+			out.write(data);
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * Writes a response into its cache file (from getFile). With conditional set, its validators and SHA1 are
+	 * kept next to it, and the file is only rewritten if the data changed. Returns false if it was the same.
+	 * Only touches the file, so it can run on a background thread.
+	 */
+	static boolean store(File file, String data, boolean conditional, String etag, String lastModified) {
+		if (file == null) {
+			return true;
+		}
+		if (conditional == false) {
+			RestCache.write(file, data);
+			return true;
+		}
+		
+		String digest = null;
+		try {
+			digest = RestCache.SHA1(data);
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		
+		String [] validators = RestCache.readValidators(file);
+		boolean changed = digest == null || validators == null || digest.equals(validators[2]) == false || file.exists() == false;
+		if (changed == true) {
+			RestCache.write(file, data);
+		}
+		RestCache.saveValidators(file, etag, lastModified, digest);
+		
+		return changed;
+	}
+	
+	// the same, for a response that's already in a file (in the cache directory, so it's moved into place with a rename)
+	static boolean store(File file, File source, boolean conditional, String etag, String lastModified) throws IOException {
+		if (file == null) {
+			return true;
+		}
+		if (source.equals(file) == false && source.renameTo(file) == false) {
+			file.delete();
+			if (source.renameTo(file) == false) {
+				throw new IOException("Could not move the response into the cache");
+			}
+		}
+		if (conditional == false) {
+			return true;
+		}
+		
+		String digest = null;
+		try {
+			digest = RestCache.SHA1(file);
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+		}
+		
+		String [] validators = RestCache.readValidators(file);
+		boolean changed = digest == null || validators == null || digest.equals(validators[2]) == false;
+		RestCache.saveValidators(file, etag, lastModified, digest);
+		
+		return changed;
 	}
 	
 	public static void clear(Context c) {
@@ -108,26 +263,11 @@ public class RestCache {
 	}
 	
 	private static String getRequestHash(RestApi api) {
-		List<NameValuePair> params = api.getParameters();
-		
-		String query = api.endpoint;
+		String query = api.getCacheKey().build(api);
 		
 		if (query == null) {
 			return null;
 		}
-		
-		NameValuePair p;
-		
-		for (int i=0; i<params.size(); i++) {
-			p = params.get(i);
-			
-			query += URLEncoder.encode(p.getName())+"="+URLEncoder.encode(p.getValue())+"&";
-		}
-		
-		// get rid of the last ampersand
-		if (query.length() > 0) {
-			query.substring(0, query.length()-1);
-		}
 
 		try {
 			String hash = RestCache.SHA1(query);
@@ -161,10 +301,28 @@ public class RestCache {
 	    MessageDigest md;
 	    md = MessageDigest.getInstance("SHA-1");
 	    byte[] sha1hash = new byte[40];
-	    md.update(text.getBytes("iso-8859-1"), 0, text.length());
+	    // all of it, iso-8859-1 would turn anything outside Latin-1 into ? and different keys would collide
+	    byte[] bytes = text.getBytes("UTF-8");
+	    md.update(bytes, 0, bytes.length);
 	    sha1hash = md.digest();
 	    return convertToHex(sha1hash);
     }
+    
+    // the same as SHA1 of the text, for text that's in a file as UTF-8
+    static String SHA1(File file) throws NoSuchAlgorithmException, IOException {
+    	MessageDigest md = MessageDigest.getInstance("SHA-1");
+    	InputStream in = new FileInputStream(file);
+    	try {
+    		byte [] buffer = new byte[8192];
+    		int read;
+    		while ((read = in.read(buffer)) != -1) {
+    			md.update(buffer, 0, read);
+    		}
+    	} finally {
+    		in.close();
+    	}
+    	return convertToHex(md.digest());
+    }
 	
     public class CachePolicy {
     	public static final int IGNORE_CACHE = 0;
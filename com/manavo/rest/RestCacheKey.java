@@ -0,0 +1,82 @@
+package com.manavo.rest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+
+/*
+ * Builds the string a request is cached under: the endpoint, the parameters sorted by name (so the order
+ * they were added in doesn't matter), minus any that change on every call (timestamps, nonces), plus the
+ * values of the headers the response varies on, and who the request is authorized as.
+ */
+public class RestCacheKey {
+
+	private static final Comparator<NameValuePair> byName = new Comparator<NameValuePair>() {
+		public int compare(NameValuePair a, NameValuePair b) {
+			return a.getName().compareTo(b.getName());
+		}
+	};
+
+	private HashSet<String> excluded = new HashSet<String>();
+	private ArrayList<String> vary = new ArrayList<String>();
+
+	// parameters that shouldn't make a difference to which cache file is used
+	public RestCacheKey exclude(String... names) {
+		for (String name : names) {
+			this.excluded.add(name);
+		}
+		return this;
+	}
+
+	// request headers the response depends on (e.g. Accept-Language), like the Vary response header
+	public RestCacheKey vary(String... headers) {
+		for (String header : headers) {
+			this.vary.add(header);
+		}
+		return this;
+	}
+
+	public String build(RestApi api) {
+		if (api.endpoint == null) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(api.endpoint.length() + 64);
+		key.append(api.endpoint);
+
+		// a stable sort, so repeated parameters (ids[]=1&ids[]=2) keep their order
+		List<NameValuePair> params = new ArrayList<NameValuePair>(api.getParameters());
+		Collections.sort(params, RestCacheKey.byName);
+
+		char separator = '?';
+		for (NameValuePair p : params) {
+			if (this.excluded.contains(p.getName()) == true) {
+				continue;
+			}
+			key.append(separator);
+			RestEndpoint.appendEncoded(key, p.getName(), true);
+			key.append('=');
+			RestEndpoint.appendEncoded(key, p.getValue(), true);
+			separator = '&';
+		}
+
+		for (String header : this.vary) {
+			String value = api.rest.getHeader(header);
+			key.append('\n').append(header.toLowerCase()).append(':');
+			if (value != null) {
+				key.append(value);
+			}
+		}
+
+		// so one user never gets another one's cached data
+		if (api.rest.getUsername() != null) {
+			key.append("\nuser:").append(api.rest.getUsername());
+		}
+
+		return key.toString();
+	}
+}
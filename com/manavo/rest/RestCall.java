@@ -0,0 +1,132 @@
+package com.manavo.rest;
+
+/*
+ * The timings (System.nanoTime) and sizes of a single request, filled in as it goes along
+ */
+public class RestCall {
+
+	private String method;
+	private String endpoint;
+	private String template;
+
+	volatile long createdAt;
+	volatile long queuedAt;
+	volatile long startedAt;
+	volatile long headersAt;
+	volatile long bodyAt;
+	volatile long parsedAt;
+	volatile long finishedAt;
+
+	volatile int statusCode;
+	volatile long wireBytes;
+	volatile long decodedBytes;
+	volatile boolean cacheHit;
+
+	public RestCall(String method, String endpoint, String template) {
+		this.method = method;
+		this.endpoint = endpoint;
+		this.template = (template != null) ? template : RestCall.toTemplate(endpoint);
+		this.createdAt = System.nanoTime();
+	}
+
+	/*
+	 * Replaces numeric path segments with {id} and drops the query string, so the same endpoint gets grouped together
+	 */
+	public static String toTemplate(String endpoint) {
+		if (endpoint == null) {
+			return null;
+		}
+
+		int query = endpoint.indexOf('?');
+		if (query >= 0) {
+			endpoint = endpoint.substring(0, query);
+		}
+
+		StringBuilder template = new StringBuilder(endpoint.length());
+		int start = 0;
+		while (start <= endpoint.length()) {
+			int end = endpoint.indexOf('/', start);
+			if (end == -1) {
+				end = endpoint.length();
+			}
+
+			int digits = start;
+			while (digits < end && endpoint.charAt(digits) >= '0' && endpoint.charAt(digits) <= '9') {
+				digits++;
+			}
+
+			// "123" or "123.json" (when there's a url suffix)
+			if (digits > start && (digits == end || endpoint.charAt(digits) == '.')) {
+				template.append("{id}");
+				template.append(endpoint, digits, end);
+			} else {
+				template.append(endpoint, start, end);
+			}
+			if (end < endpoint.length()) {
+				template.append('/');
+			}
+			start = end + 1;
+		}
+
+		return template.toString();
+	}
+
+	public String getMethod() {
+		return this.method;
+	}
+
+	public String getEndpoint() {
+		return this.endpoint;
+	}
+
+	public String getTemplate() {
+		return this.template;
+	}
+
+	public int getStatusCode() {
+		return this.statusCode;
+	}
+
+	public long getWireBytes() {
+		return this.wireBytes;
+	}
+
+	public long getDecodedBytes() {
+		return this.decodedBytes;
+	}
+
+	public boolean isCacheHit() {
+		return this.cacheHit;
+	}
+
+	private static long between(long from, long to) {
+		if (from == 0 || to == 0 || to < from) {
+			return -1;
+		}
+		return (to - from) / 1000;
+	}
+
+	// all the durations are in microseconds, or -1 if the request never got that far
+
+	// waiting for a background thread
+	public long getQueueTime() {
+		return RestCall.between(this.queuedAt, this.startedAt);
+	}
+
+	// connecting (DNS, TCP, TLS), sending the request and waiting for the first byte of the response
+	public long getTimeToHeaders() {
+		return RestCall.between(this.startedAt, this.headersAt);
+	}
+
+	public long getDownloadTime() {
+		return RestCall.between(this.headersAt, this.bodyAt);
+	}
+
+	public long getParseTime() {
+		return RestCall.between(this.bodyAt, this.parsedAt);
+	}
+
+	public long getTotalTime() {
+		return RestCall.between(this.createdAt, this.finishedAt);
+	}
+}
@@ -0,0 +1,18 @@
+package com.manavo.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.json.JSONException;
+
+/*
+ * Parses responses into JSONObject/JSONArray (or returns the text as it is, if it isn't JSON),
+ * and serializes request bodies
+ */
+public interface RestCodec {
+	public Object parse(String data) throws JSONException;
+	public Object parse(InputStream in) throws IOException, JSONException;
+	public String serialize(Object data) throws JSONException;
+	public void write(Object data, OutputStream out) throws IOException, JSONException;
+}
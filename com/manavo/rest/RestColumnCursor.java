@@ -0,0 +1,88 @@
+package com.manavo.rest;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/*
+ * A cursor over a RestColumnStore. The values are read straight from its primitive columns as the cursor
+ * moves, so unlike a MatrixCursor there's no Object per cell.
+ */
+public class RestColumnCursor extends AbstractCursor {
+
+	private RestColumnStore store;
+	private String [] columnNames;
+	// the store's rows that matched the filter, or null for all of them
+	private int [] rows;
+
+	RestColumnCursor(RestColumnStore store, String [] columnNames, int [] rows) {
+		this.store = store;
+		this.columnNames = columnNames;
+		this.rows = rows;
+	}
+
+	private int row() {
+		int position = this.getPosition();
+		return (this.rows != null) ? this.rows[position] : position;
+	}
+
+	@Override
+	public int getCount() {
+		return (this.rows != null) ? this.rows.length : this.store.getRowCount();
+	}
+
+	@Override
+	public String [] getColumnNames() {
+		return this.columnNames;
+	}
+
+	@Override
+	public String getString(int column) {
+		return this.store.getString(column, this.row());
+	}
+
+	@Override
+	public short getShort(int column) {
+		return (short)this.store.getLong(column, this.row());
+	}
+
+	@Override
+	public int getInt(int column) {
+		return (int)this.store.getLong(column, this.row());
+	}
+
+	@Override
+	public long getLong(int column) {
+		return this.store.getLong(column, this.row());
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return (float)this.store.getDouble(column, this.row());
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return this.store.getDouble(column, this.row());
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		return this.store.isNull(column, this.row());
+	}
+
+	@Override
+	public int getType(int column) {
+		if (this.store.isNull(column, this.row()) == true) {
+			return Cursor.FIELD_TYPE_NULL;
+		}
+
+		int type = this.store.getType(column);
+		if (type == RestColumnStore.TYPE_LONG) {
+			return Cursor.FIELD_TYPE_INTEGER;
+		} else if (type == RestColumnStore.TYPE_DOUBLE) {
+			return Cursor.FIELD_TYPE_FLOAT;
+		} else {
+			return Cursor.FIELD_TYPE_STRING;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.manavo.rest;
+
+import java.util.HashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.database.MatrixCursor;
+
+public class RestColumnStore {
+
+	public static final int TYPE_LONG = 0;
+	public static final int TYPE_DOUBLE = 1;
+	public static final int TYPE_STRING = 2;
+
+	private String [] keys;
+	private int rowCount;
+
+	private int [] types;
+	private boolean [][] nulls;
+	private long [][] longs;
+	private double [][] doubles;
+	// strings are dictionary encoded, so repeated values (statuses, types, names) are only stored once
+	private int [][] codes;
+	private String [][] dictionaries;
+	// array cells are dictionary encoded through toString() too, the arrays themselves are kept so filters can still match on contents
+	private JSONArray [][] arrays;
+
+	public RestColumnStore(JSONArray data, String [] keys) throws JSONException {
+		int i, j;
+
+		this.keys = new String[keys.length];
+		System.arraycopy(keys, 0, this.keys, 0, keys.length);
+
+		this.rowCount = data.length();
+
+		this.types = new int[keys.length];
+		this.nulls = new boolean[keys.length][];
+		this.longs = new long[keys.length][];
+		this.doubles = new double[keys.length][];
+		this.codes = new int[keys.length][];
+		this.dictionaries = new String[keys.length][];
+		this.arrays = new JSONArray[keys.length][];
+
+		JSONObject [] rows = new JSONObject[this.rowCount];
+		for (j=0; j<this.rowCount; j++) {
+			rows[j] = data.getJSONObject(j);
+		}
+
+		for (i=0; i<keys.length; i++) {
+			String key = keys[i];
+
+			this.types[i] = RestColumnStore.detectType(rows, key);
+			this.nulls[i] = new boolean[this.rowCount];
+
+			if (this.types[i] == TYPE_LONG) {
+				long [] column = new long[this.rowCount];
+				for (j=0; j<this.rowCount; j++) {
+					if (rows[j].has(key) && rows[j].isNull(key) == false) {
+						column[j] = ((Number)rows[j].get(key)).longValue();
+					} else {
+						this.nulls[i][j] = true;
+					}
+				}
+				this.longs[i] = column;
+			} else if (this.types[i] == TYPE_DOUBLE) {
+				double [] column = new double[this.rowCount];
+				for (j=0; j<this.rowCount; j++) {
+					if (rows[j].has(key) && rows[j].isNull(key) == false) {
+						column[j] = ((Number)rows[j].get(key)).doubleValue();
+					} else {
+						this.nulls[i][j] = true;
+					}
+				}
+				this.doubles[i] = column;
+			} else {
+				int [] column = new int[this.rowCount];
+				HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+				String [] dictionary = new String[16];
+
+				for (j=0; j<this.rowCount; j++) {
+					if (rows[j].has(key) && rows[j].isNull(key) == false) {
+						Object raw = rows[j].get(key);
+						if (raw instanceof JSONArray) {
+							if (this.arrays[i] == null) {
+								this.arrays[i] = new JSONArray[this.rowCount];
+							}
+							this.arrays[i][j] = (JSONArray)raw;
+						}
+
+						String value = raw.toString();
+						Integer code = lookup.get(value);
+						if (code == null) {
+							code = lookup.size();
+							if (code == dictionary.length) {
+								String [] grown = new String[dictionary.length * 2];
+								System.arraycopy(dictionary, 0, grown, 0, dictionary.length);
+								dictionary = grown;
+							}
+							dictionary[code] = value;
+							lookup.put(value, code);
+						}
+						column[j] = code;
+					} else {
+						this.nulls[i][j] = true;
+					}
+				}
+
+				// trim the dictionary, the lookup map is only needed while building
+				this.dictionaries[i] = new String[lookup.size()];
+				System.arraycopy(dictionary, 0, this.dictionaries[i], 0, lookup.size());
+				this.codes[i] = column;
+			}
+		}
+	}
+
+	private static int detectType(JSONObject [] rows, String key) throws JSONException {
+		int type = TYPE_LONG;
+
+		for (int j=0; j<rows.length; j++) {
+			if (rows[j].has(key) && rows[j].isNull(key) == false) {
+				Object value = rows[j].get(key);
+				if (value instanceof Integer || value instanceof Long) {
+					// keep whatever we have so far
+				} else if (value instanceof Number) {
+					type = TYPE_DOUBLE;
+				} else {
+					return TYPE_STRING;
+				}
+			}
+		}
+
+		return type;
+	}
+
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	public String [] getKeys() {
+		return this.keys;
+	}
+
+	public int getColumnIndex(String key) {
+		for (int i=0; i<this.keys.length; i++) {
+			if (this.keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getType(int column) {
+		return this.types[column];
+	}
+
+	public boolean isNull(int column, int row) {
+		return this.nulls[column][row];
+	}
+
+	public long getLong(int column, int row) {
+		// same as the typed columns, a null cell reads as 0
+		if (this.nulls[column][row] == true) {
+			return 0;
+		}
+
+		if (this.types[column] == TYPE_LONG) {
+			return this.longs[column][row];
+		} else if (this.types[column] == TYPE_DOUBLE) {
+			return (long)this.doubles[column][row];
+		} else {
+			// like a cursor over sqlite, text that isn't a number reads as 0
+			try {
+				return Long.parseLong(this.getString(column, row));
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+	}
+
+	public double getDouble(int column, int row) {
+		if (this.nulls[column][row] == true) {
+			return 0;
+		}
+
+		if (this.types[column] == TYPE_LONG) {
+			return this.longs[column][row];
+		} else if (this.types[column] == TYPE_DOUBLE) {
+			return this.doubles[column][row];
+		} else {
+			try {
+				return Double.parseDouble(this.getString(column, row));
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+	}
+
+	public String getString(int column, int row) {
+		if (this.nulls[column][row] == true) {
+			return null;
+		}
+
+		if (this.types[column] == TYPE_LONG) {
+			return Long.toString(this.longs[column][row]);
+		} else if (this.types[column] == TYPE_DOUBLE) {
+			return Double.toString(this.doubles[column][row]);
+		} else {
+			return this.dictionaries[column][this.codes[column][row]];
+		}
+	}
+
+	public Object get(int column, int row) {
+		if (this.nulls[column][row] == true) {
+			return null;
+		}
+
+		if (this.types[column] == TYPE_LONG) {
+			return this.longs[column][row];
+		} else if (this.types[column] == TYPE_DOUBLE) {
+			return this.doubles[column][row];
+		} else {
+			return this.dictionaries[column][this.codes[column][row]];
+		}
+	}
+
+	/*
+	 * Equivalent of RestApi.getObjectFromCursor, but returns the row index (or -1) rather than the object
+	 */
+	public int indexOf(String key, long value) {
+		int column = this.getColumnIndex(key);
+		if (column == -1) {
+			return -1;
+		}
+
+		for (int j=0; j<this.rowCount; j++) {
+			if (this.nulls[column][j] == false && this.getLong(column, j) == value) {
+				return j;
+			}
+		}
+
+		return -1;
+	}
+
+	public boolean matches(int row, JSONObject filter) throws JSONException {
+		if (filter == null) {
+			return true;
+		}
+
+		JSONArray names = filter.names();
+		if (names != null) {
+			for (int i=0; i<names.length(); i++) {
+				String key = names.getString(i);
+				int column = this.getColumnIndex(key);
+
+				// only flat keys are stored, so anything we don't have a column for can't match
+				if (column == -1 || this.nulls[column][row] == true) {
+					return false;
+				}
+
+				Object value = filter.get(key);
+				if (this.arrays[column] != null && this.arrays[column][row] != null) {
+					// like RestApi.checkFilter, an array matches if any of its elements does
+					JSONArray array = this.arrays[column][row];
+					boolean found = false;
+					for (int j=0; j<array.length(); j++) {
+						if (array.get(j).equals(value) == true) {
+							found = true;
+							break;
+						}
+					}
+					if (found == false) {
+						return false;
+					}
+				} else if (this.types[column] == TYPE_STRING) {
+					if (this.getString(column, row).equals(value.toString()) == false) {
+						return false;
+					}
+				} else if (value instanceof Number) {
+					if (this.types[column] == TYPE_LONG && (value instanceof Integer || value instanceof Long)) {
+						if (this.longs[column][row] != ((Number)value).longValue()) {
+							return false;
+						}
+					} else if (this.getDouble(column, row) != ((Number)value).doubleValue()) {
+						return false;
+					}
+				} else {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * A cursor that reads from the columns as it goes, rather than copying every cell into a MatrixCursor.
+	 * Only the indexes of the rows that match the filter are kept.
+	 */
+	public RestColumnCursor toCursor(String keyToBeId) {
+		return this.toCursor(keyToBeId, null);
+	}
+
+	public RestColumnCursor toCursor(String keyToBeId, JSONObject filter) {
+		int [] rows = null;
+
+		if (filter != null) {
+			int [] matched = new int[this.rowCount];
+			int count = 0;
+			try {
+				for (int j=0; j<this.rowCount; j++) {
+					if (this.matches(j, filter)) {
+						matched[count++] = j;
+					}
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+
+			rows = new int[count];
+			System.arraycopy(matched, 0, rows, 0, count);
+		}
+
+		return new RestColumnCursor(this, this.getColumnNames(keyToBeId), rows);
+	}
+
+	public MatrixCursor toMatrixCursor(String keyToBeId) {
+		return this.toMatrixCursor(keyToBeId, null);
+	}
+
+	public MatrixCursor toMatrixCursor(String keyToBeId, JSONObject filter) {
+		int i, j;
+		MatrixCursor c;
+		MatrixCursor.RowBuilder row;
+
+		String [] keyAttributes = this.getColumnNames(keyToBeId);
+
+		if (filter == null) {
+			c = new MatrixCursor(keyAttributes, this.rowCount);
+		} else {
+			c = new MatrixCursor(keyAttributes);
+		}
+
+		try {
+			for (j=0; j<this.rowCount; j++) {
+				if (this.matches(j, filter)) {
+					row = c.newRow();
+					for (i=0; i<this.keys.length; i++) {
+						row.add(this.get(i, j));
+					}
+				}
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+
+		return c;
+	}
+
+	// the keys, with keyToBeId renamed to _id
+	private String [] getColumnNames(String keyToBeId) {
+		String [] keyAttributes = new String[this.keys.length];
+		System.arraycopy(this.keys, 0, keyAttributes, 0, this.keys.length);
+
+		for (int i=0; i<keyAttributes.length; i++) {
+			if (keyAttributes[i].equalsIgnoreCase(keyToBeId) == true) {
+				keyAttributes[i] = "_id";
+				break;
+			}
+		}
+
+		return keyAttributes;
+	}
+}
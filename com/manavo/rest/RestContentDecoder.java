@@ -0,0 +1,13 @@
+package com.manavo.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Undoes a Content-Encoding (gzip, deflate, or anything registered with RestDecoders, e.g. brotli)
+ * as the body is read
+ */
+public interface RestContentDecoder {
+	public String getName();
+	public InputStream decode(InputStream in) throws IOException;
+}
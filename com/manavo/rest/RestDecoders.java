@@ -0,0 +1,152 @@
+package com.manavo.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+/*
+ * The content encodings we can read, which is also what we tell the server we accept. gzip and deflate
+ * are there already, others can be registered, e.g.
+ *
+ * RestDecoders.register(new RestContentDecoder() {
+ *     public String getName() { return "br"; }
+ *     public InputStream decode(InputStream in) throws IOException { return new BrotliInputStream(in); }
+ * });
+ */
+public class RestDecoders {
+
+	private static LinkedHashMap<String, RestContentDecoder> decoders = new LinkedHashMap<String, RestContentDecoder>();
+	private static String acceptEncoding;
+
+	static {
+		RestDecoders.register(new RestContentDecoder() {
+			public String getName() {
+				return "gzip";
+			}
+
+			public InputStream decode(InputStream in) throws IOException {
+				return new GZIPInputStream(in, 8192);
+			}
+		});
+		RestDecoders.register(new RestContentDecoder() {
+			public String getName() {
+				return "deflate";
+			}
+
+			public InputStream decode(InputStream in) throws IOException {
+				// should be zlib wrapped, but plenty of servers send raw deflate, so check the header
+				PushbackInputStream pushback = new PushbackInputStream(in, 2);
+				int first = pushback.read();
+				int second = pushback.read();
+				if (second != -1) {
+					pushback.unread(second);
+				}
+				if (first != -1) {
+					pushback.unread(first);
+				}
+
+				boolean zlib = first != -1 && second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+				return new DeflateInputStream(pushback, new Inflater(zlib == false));
+			}
+		});
+	}
+
+	public static synchronized void register(RestContentDecoder decoder) {
+		RestDecoders.decoders.put(decoder.getName().toLowerCase(), decoder);
+
+		StringBuilder accept = new StringBuilder();
+		for (String name : RestDecoders.decoders.keySet()) {
+			if (accept.length() > 0) {
+				accept.append(", ");
+			}
+			accept.append(name);
+		}
+		RestDecoders.acceptEncoding = accept.toString();
+	}
+
+	public static synchronized RestContentDecoder get(String name) {
+		return RestDecoders.decoders.get(name.toLowerCase());
+	}
+
+	// the value for the Accept-Encoding header
+	public static synchronized String getAcceptEncoding() {
+		return RestDecoders.acceptEncoding;
+	}
+
+	/*
+	 * Wraps in with a decoder for each of the encodings in the header (they're listed in the order they were applied)
+	 */
+	public static InputStream decode(InputStream in, Header contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return in;
+		}
+
+		String [] encodings = contentEncoding.getValue().split(",");
+		for (int i=encodings.length-1; i>=0; i--) {
+			String name = encodings[i].trim();
+			if (name.length() == 0 || name.equalsIgnoreCase("identity")) {
+				continue;
+			}
+			if (name.equalsIgnoreCase("x-gzip")) {
+				name = "gzip";
+			}
+
+			RestContentDecoder decoder = RestDecoders.get(name);
+			if (decoder == null) {
+				throw new IOException("Unsupported Content-Encoding: "+name);
+			}
+			in = decoder.decode(in);
+		}
+		return in;
+	}
+
+	public static boolean isIdentity(Header contentEncoding) {
+		if (contentEncoding == null) {
+			return true;
+		}
+		String value = contentEncoding.getValue().trim();
+		return value.length() == 0 || value.equalsIgnoreCase("identity");
+	}
+
+	/*
+	 * The charset from the Content-Type, or if there isn't one, UTF-8 for JSON (which is always UTF-8)
+	 * and the HTTP default for anything else
+	 */
+	public static String getCharset(HttpEntity entity) {
+		String charset = EntityUtils.getContentCharSet(entity);
+		if (charset != null) {
+			return charset;
+		}
+
+		Header contentType = entity.getContentType();
+		if (contentType == null || contentType.getValue().toLowerCase().indexOf("json") != -1) {
+			return HTTP.UTF_8;
+		}
+		return HTTP.DEFAULT_CONTENT_CHARSET;
+	}
+
+	// InflaterInputStream only ends an Inflater it created itself, and this one holds native zlib memory until it's ended
+	private static class DeflateInputStream extends InflaterInputStream {
+		public DeflateInputStream(InputStream in, Inflater inflater) {
+			super(in, inflater, 8192);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				this.inf.end();
+			}
+		}
+	}
+}
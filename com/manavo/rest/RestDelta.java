@@ -0,0 +1,148 @@
+package com.manavo.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class RestDelta {
+
+	private List<JSONObject> inserted = new ArrayList<JSONObject>();
+	private List<JSONObject> updated = new ArrayList<JSONObject>();
+	private List<JSONObject> deleted = new ArrayList<JSONObject>();
+	private boolean reordered = false;
+	private boolean full = false;
+
+	public List<JSONObject> getInserted() {
+		return this.inserted;
+	}
+
+	public List<JSONObject> getUpdated() {
+		return this.updated;
+	}
+
+	public List<JSONObject> getDeleted() {
+		return this.deleted;
+	}
+
+	/*
+	 * The items that are in both lists aren't in the same order anymore
+	 */
+	public boolean isReordered() {
+		return this.reordered;
+	}
+
+	/*
+	 * The lists couldn't be matched up by id (there are duplicate ids), so the whole list should be replaced
+	 */
+	public boolean isFull() {
+		return this.full;
+	}
+
+	public boolean isEmpty() {
+		return this.inserted.isEmpty() && this.updated.isEmpty() && this.deleted.isEmpty() && this.reordered == false && this.full == false;
+	}
+
+	public int size() {
+		return this.inserted.size() + this.updated.size() + this.deleted.size();
+	}
+
+	public static RestDelta diff(JSONArray cached, JSONArray fresh, String id) throws JSONException {
+		RestDelta delta = new RestDelta();
+		int i;
+
+		HashMap<String, JSONObject> previous = new HashMap<String, JSONObject>(cached.length() * 2);
+		for (i=0; i<cached.length(); i++) {
+			JSONObject o = cached.getJSONObject(i);
+			if (previous.put(o.get(id).toString(), o) != null) {
+				delta.full = true;
+				return delta;
+			}
+		}
+
+		HashSet<String> seen = new HashSet<String>(fresh.length() * 2);
+		// the ids of the items that were already there, in their new order
+		List<String> kept = new ArrayList<String>();
+		for (i=0; i<fresh.length(); i++) {
+			JSONObject o = fresh.getJSONObject(i);
+			String key = o.get(id).toString();
+			if (seen.add(key) == false) {
+				delta.full = true;
+				return delta;
+			}
+
+			JSONObject old = previous.remove(key);
+
+			if (old == null) {
+				delta.inserted.add(o);
+			} else {
+				kept.add(key);
+				if (RestDelta.equal(old, o) == false) {
+					delta.updated.add(o);
+				}
+			}
+		}
+
+		// whatever is left wasn't in the fresh data anymore
+		int position = 0;
+		for (i=0; i<cached.length(); i++) {
+			JSONObject o = cached.getJSONObject(i);
+			String key = o.get(id).toString();
+			if (previous.containsKey(key)) {
+				delta.deleted.add(o);
+			} else if (key.equals(kept.get(position++)) == false) {
+				delta.reordered = true;
+			}
+		}
+
+		return delta;
+	}
+
+	private static boolean equal(Object a, Object b) throws JSONException {
+		if (a instanceof JSONObject && b instanceof JSONObject) {
+			JSONObject x = (JSONObject)a;
+			JSONObject y = (JSONObject)b;
+
+			if (x.length() != y.length()) {
+				return false;
+			}
+
+			JSONArray names = x.names();
+			if (names != null) {
+				for (int i=0; i<names.length(); i++) {
+					String key = names.getString(i);
+					if (y.has(key) == false || RestDelta.equal(x.get(key), y.get(key)) == false) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} else if (a instanceof JSONArray && b instanceof JSONArray) {
+			JSONArray x = (JSONArray)a;
+			JSONArray y = (JSONArray)b;
+
+			if (x.length() != y.length()) {
+				return false;
+			}
+
+			for (int i=0; i<x.length(); i++) {
+				if (RestDelta.equal(x.get(i), y.get(i)) == false) {
+					return false;
+				}
+			}
+			return true;
+		} else if (a instanceof Number && b instanceof Number) {
+			// the parser may give us an Integer one time and a Long the next
+			if ((a instanceof Double || a instanceof Float) || (b instanceof Double || b instanceof Float)) {
+				return ((Number)a).doubleValue() == ((Number)b).doubleValue();
+			}
+			return ((Number)a).longValue() == ((Number)b).longValue();
+		} else {
+			return a.equals(b);
+		}
+	}
+}
@@ -0,0 +1,7 @@
+package com.manavo.rest;
+
+import org.json.JSONArray;
+
+public interface RestDeltaCallback {
+	public void changed(JSONArray data, RestDelta delta);
+}
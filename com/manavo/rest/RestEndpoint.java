@@ -0,0 +1,202 @@
+package com.manavo.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+
+/*
+ * An endpoint like "products/{id}/items", split up once into its constant parts (already encoded) and
+ * its placeholders, so building the url for a request is a few appends into a reused StringBuilder.
+ * The template is also what the request gets grouped under in the metrics.
+ */
+public class RestEndpoint {
+
+	private static final char [] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<StringBuilder> builder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	private String template;
+	// constants[i] comes before names[i], and the last constant after the last placeholder
+	private String [] constants;
+	private String [] names;
+
+	public static RestEndpoint compile(String template) {
+		return new RestEndpoint(template);
+	}
+
+	private RestEndpoint(String template) {
+		this.template = template;
+
+		ArrayList<String> constants = new ArrayList<String>();
+		ArrayList<String> names = new ArrayList<String>();
+
+		int start = 0;
+		while (true) {
+			int open = template.indexOf('{', start);
+			int close = (open == -1) ? -1 : template.indexOf('}', open);
+			if (open == -1 || close == -1) {
+				break;
+			}
+
+			constants.add(RestEndpoint.encodePath(template.substring(start, open)));
+			names.add(template.substring(open + 1, close));
+			start = close + 1;
+		}
+		constants.add(RestEndpoint.encodePath(template.substring(start)));
+
+		this.constants = constants.toArray(new String[constants.size()]);
+		this.names = names.toArray(new String[names.size()]);
+	}
+
+	public String getTemplate() {
+		return this.template;
+	}
+
+	public String [] getNames() {
+		return this.names;
+	}
+
+	/*
+	 * Fills in the placeholders, in order
+	 */
+	public String expand(Object... values) {
+		if (values.length != this.names.length) {
+			throw new IllegalArgumentException(this.template+" takes "+this.names.length+" values, got "+values.length);
+		}
+
+		StringBuilder url = RestEndpoint.getBuilder();
+
+		for (int i=0; i<this.names.length; i++) {
+			url.append(this.constants[i]);
+			if (values[i] instanceof Integer || values[i] instanceof Long) {
+				// ids, nothing to encode
+				url.append(((Number)values[i]).longValue());
+			} else {
+				RestEndpoint.appendEncoded(url, values[i].toString(), false);
+			}
+		}
+		url.append(this.constants[this.names.length]);
+
+		return url.toString();
+	}
+
+	/*
+	 * Appends the parameters to the url's query string (values encoded like URLEncoder does, names as they are)
+	 */
+	public static String addQuery(String url, List<NameValuePair> parameters) {
+		StringBuilder b = RestEndpoint.getBuilder();
+		b.append(url);
+		// if we don't already have some query string parameters, add a ?, otherwise keep adding to them
+		b.append(url.indexOf('?') == -1 ? '?' : '&');
+		for (int i=0; i<parameters.size(); i++) {
+			NameValuePair p = parameters.get(i);
+			if (i > 0) {
+				b.append('&');
+			}
+			b.append(p.getName()).append('=');
+			RestEndpoint.appendEncoded(b, p.getValue(), true);
+		}
+		return b.toString();
+	}
+
+	// an empty StringBuilder for this thread, reused rather than allocating one per url
+	static StringBuilder getBuilder() {
+		StringBuilder b = RestEndpoint.builder.get();
+		b.setLength(0);
+		return b;
+	}
+
+	// the constant parts are written by us, so only what can't appear in a url at all gets encoded
+	private static String encodePath(String constant) {
+		StringBuilder b = new StringBuilder(constant.length());
+		for (int i=0; i<constant.length(); i++) {
+			char c = constant.charAt(i);
+			if (c > 0x20 && c < 0x7F && "\"<>\\^`{|}".indexOf(c) == -1) {
+				b.append(c);
+			} else {
+				i = RestEndpoint.appendChar(b, constant, i);
+			}
+		}
+		return b.toString();
+	}
+
+	/*
+	 * Percent encodes value into b. In a query it's the same as URLEncoder.encode(value, "utf-8"), in a path
+	 * segment spaces become %20 and slashes get encoded. Values that don't need encoding (most ids) are
+	 * appended as they are.
+	 */
+	static void appendEncoded(StringBuilder b, String value, boolean query) {
+		int i;
+		for (i=0; i<value.length(); i++) {
+			if (RestEndpoint.isSafe(value.charAt(i), query) == false) {
+				break;
+			}
+		}
+		if (i == value.length()) {
+			b.append(value);
+			return;
+		}
+
+		b.append(value, 0, i);
+		for (; i<value.length(); i++) {
+			char c = value.charAt(i);
+			if (RestEndpoint.isSafe(c, query) == true) {
+				b.append(c);
+			} else if (c == ' ' && query == true) {
+				b.append('+');
+			} else {
+				i = RestEndpoint.appendChar(b, value, i);
+			}
+		}
+	}
+
+	// encodes the character at i (as UTF-8), and returns the index of its last char (for surrogate pairs)
+	private static int appendChar(StringBuilder b, String value, int i) {
+		char c = value.charAt(i);
+		if (c < 0x80) {
+			RestEndpoint.appendByte(b, c);
+			return i;
+		}
+
+		int end = (Character.isHighSurrogate(c) && i + 1 < value.length()) ? i + 2 : i + 1;
+		try {
+			for (byte x : value.substring(i, end).getBytes("UTF-8")) {
+				RestEndpoint.appendByte(b, x);
+			}
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return end - 1;
+	}
+
+	private static boolean isSafe(char c, boolean query) {
+		if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+			return true;
+		}
+		switch (c) {
+			case '-':
+			case '_':
+			case '.':
+				return true;
+			case '*':
+				return query;
+			case '~':
+				return query == false;
+			default:
+				return false;
+		}
+	}
+
+	private static void appendByte(StringBuilder b, int x) {
+		b.append('%');
+		b.append(RestEndpoint.HEX[(x >> 4) & 0x0F]);
+		b.append(RestEndpoint.HEX[x & 0x0F]);
+	}
+}
@@ -0,0 +1,16 @@
+package com.manavo.rest;
+
+/*
+ * Gets told about every step of a request. queued, cacheLookup, parsed, delivered and failed are called on the UI thread,
+ * started, headersReceived and bodyReceived on the background thread, so implementations should be quick and thread safe.
+ */
+public interface RestEventListener {
+	public void queued(RestCall call);
+	public void cacheLookup(RestCall call, boolean hit);
+	public void started(RestCall call);
+	public void headersReceived(RestCall call);
+	public void bodyReceived(RestCall call);
+	public void parsed(RestCall call);
+	public void delivered(RestCall call);
+	public void failed(RestCall call, String error);
+}
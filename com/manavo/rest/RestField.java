@@ -0,0 +1,15 @@
+package com.manavo.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/*
+ * Binds a field to a JSON key with a different name, e.g. @RestField("created_at") public long createdAt;
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RestField {
+	public String value();
+}
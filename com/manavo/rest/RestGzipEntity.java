@@ -0,0 +1,55 @@
+package com.manavo.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/*
+ * Compresses the wrapped body while it's being sent. The compressed size isn't known up front, so it's always chunked.
+ */
+public class RestGzipEntity extends HttpEntityWrapper {
+
+	public RestGzipEntity(HttpEntity entity) {
+		super(entity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader("Content-Encoding", "gzip");
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	// sending goes through writeTo, this is only for anything that wants to read the body back
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.writeTo(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+		this.wrappedEntity.writeTo(gzip);
+		// finish, but don't close, the connection's stream isn't ours to close
+		gzip.finish();
+		gzip.flush();
+	}
+}
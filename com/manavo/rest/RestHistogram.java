@@ -0,0 +1,113 @@
+package com.manavo.rest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * A fixed size, log-linear histogram (in the spirit of HdrHistogram): every power of two is split into 16 buckets,
+ * so values are kept to within ~6%, in a few KB, no matter how many are recorded. Not synchronized.
+ */
+public class RestHistogram {
+
+	private static final int SUB_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private long [] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)((value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// the highest value that ends up in the bucket
+	private static long valueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+		return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			return;
+		}
+
+		this.counts[RestHistogram.indexOf(value)]++;
+		this.count++;
+		this.sum += value;
+		if (value < this.min) {
+			this.min = value;
+		}
+		if (value > this.max) {
+			this.max = value;
+		}
+	}
+
+	public long getCount() {
+		return this.count;
+	}
+
+	public long getMin() {
+		return (this.count == 0) ? 0 : this.min;
+	}
+
+	public long getMax() {
+		return this.max;
+	}
+
+	public double getMean() {
+		return (this.count == 0) ? 0 : (double)this.sum / this.count;
+	}
+
+	public long getPercentile(double percentile) {
+		if (this.count == 0) {
+			return 0;
+		}
+
+		long target = (long)Math.ceil(this.count * percentile / 100.0);
+		if (target < 1) {
+			target = 1;
+		}
+
+		long seen = 0;
+		for (int i=0; i<this.counts.length; i++) {
+			seen += this.counts[i];
+			if (seen >= target) {
+				return Math.min(RestHistogram.valueOf(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	public void reset() {
+		java.util.Arrays.fill(this.counts, 0);
+		this.count = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = 0;
+	}
+
+	public JSONObject toJSONObject() throws JSONException {
+		JSONObject o = new JSONObject();
+		o.put("count", this.count);
+		o.put("min", this.getMin());
+		o.put("max", this.getMax());
+		o.put("mean", this.getMean());
+		o.put("p50", this.getPercentile(50));
+		o.put("p90", this.getPercentile(90));
+		o.put("p99", this.getPercentile(99));
+		o.put("p999", this.getPercentile(99.9));
+		return o;
+	}
+}
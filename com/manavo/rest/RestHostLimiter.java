@@ -0,0 +1,266 @@
+package com.manavo.rest;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/*
+ * Limits the requests going to a single host. There's a token bucket for the request rate, and a
+ * concurrency limit that adapts to how the server is doing (AIMD: it grows slowly while responses are
+ * fast, and halves on 429/503 responses or slow ones). A Retry-After on a 429/503 holds back every
+ * request to that host until it has passed.
+ *
+ * Requests over the limit are queued (nothing blocks while they wait), and are started in order as slots
+ * free up. One that can't get a slot within maxWait milliseconds is rejected.
+ */
+public class RestHostLimiter {
+
+	private static HashMap<String, RestHostLimiter> limiters = new HashMap<String, RestHostLimiter>();
+
+	private String host;
+
+	// token bucket
+	private double rate = 10;
+	private double burst = 10;
+	private double tokens = 10;
+	private long refilledAt = System.nanoTime();
+
+	// concurrency
+	private int minConcurrency = 1;
+	private int maxConcurrency = 8;
+	private double limit = 4;
+	private int inFlight = 0;
+	private long latencyThreshold = 3000;
+
+	private long blockedUntil = 0;
+	private long maxWait = 10000;
+
+	private LinkedList<Waiting> queue = new LinkedList<Waiting>();
+	private ScheduledFuture<?> wakeUp;
+	private long wakeUpAt = 0;
+
+	private long rejected = 0;
+	private long throttled = 0;
+
+	public static synchronized RestHostLimiter forHost(String host) {
+		RestHostLimiter limiter = RestHostLimiter.limiters.get(host);
+		if (limiter == null) {
+			limiter = new RestHostLimiter(host);
+			RestHostLimiter.limiters.put(host, limiter);
+		}
+		return limiter;
+	}
+
+	private RestHostLimiter(String host) {
+		this.host = host;
+	}
+
+	public String getHost() {
+		return this.host;
+	}
+
+	// requests per second, and how many can go out at once after a quiet period
+	public synchronized RestHostLimiter setRate(double perSecond, int burst) {
+		this.rate = perSecond;
+		this.burst = burst;
+		this.tokens = Math.min(this.tokens, burst);
+		return this;
+	}
+
+	public synchronized RestHostLimiter setConcurrency(int min, int initial, int max) {
+		this.minConcurrency = min;
+		this.maxConcurrency = max;
+		this.limit = Math.max(min, Math.min(initial, max));
+		return this;
+	}
+
+	// responses slower than this (in milliseconds) count as the server struggling
+	public synchronized RestHostLimiter setLatencyThreshold(long millis) {
+		this.latencyThreshold = millis;
+		return this;
+	}
+
+	// how long a request can wait for a slot before it's rejected, 0 to reject it straight away
+	public synchronized RestHostLimiter setMaxWait(long millis) {
+		this.maxWait = millis;
+		return this;
+	}
+
+	public synchronized int getLimit() {
+		return (int)this.limit;
+	}
+
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	// requests that were rejected because they couldn't get a slot in time
+	public synchronized long getRejected() {
+		return this.rejected;
+	}
+
+	// 429/503 responses seen
+	public synchronized long getThrottled() {
+		return this.throttled;
+	}
+
+	public synchronized int getQueued() {
+		return this.queue.size();
+	}
+
+	/*
+	 * Runs start once the request can go out (it has a slot then, which has to be given back with release),
+	 * or reject if it couldn't get one within maxWait. Either may run on another thread.
+	 */
+	public void submit(Runnable start, Runnable reject) {
+		synchronized (this) {
+			this.queue.add(new Waiting(start, reject, System.currentTimeMillis() + this.maxWait));
+		}
+		this.drain();
+	}
+
+	/*
+	 * Called when the request is done. statusCode is 0 if there was no response, and latencyMillis is the
+	 * time it took to get the response headers (how long the body takes depends on its size, not the server)
+	 */
+	public void release(int statusCode, long latencyMillis, String retryAfter) {
+		synchronized (this) {
+			this.inFlight--;
+
+			if (statusCode == 429 || statusCode == 503) {
+				this.throttled++;
+				this.limit = Math.max(this.minConcurrency, this.limit / 2);
+
+				long until = RestHostLimiter.parseRetryAfter(retryAfter);
+				if (until > this.blockedUntil) {
+					this.blockedUntil = until;
+				}
+			} else if (statusCode > 0) {
+				if (latencyMillis > this.latencyThreshold) {
+					this.limit = Math.max(this.minConcurrency, this.limit / 2);
+				} else {
+					this.limit = Math.min(this.maxConcurrency, this.limit + 1 / this.limit);
+				}
+			}
+		}
+
+		this.drain();
+	}
+
+	// starts whatever can go out now, rejects what has waited too long, and sets a timer for the next time something can change
+	private void drain() {
+		List<Runnable> starts = new ArrayList<Runnable>();
+		List<Runnable> rejects = new ArrayList<Runnable>();
+
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			this.refill();
+
+			// 0 means a free slot will wake us up (from release)
+			long nextAt = 0;
+			while (this.queue.isEmpty() == false) {
+				if (this.blockedUntil > now) {
+					nextAt = this.blockedUntil;
+					break;
+				} else if (this.inFlight >= (int)this.limit) {
+					break;
+				} else if (this.tokens < 1) {
+					nextAt = now + (long)Math.ceil((1 - this.tokens) * 1000 / this.rate);
+					break;
+				}
+
+				this.tokens--;
+				this.inFlight++;
+				starts.add(this.queue.removeFirst().start);
+			}
+
+			Iterator<Waiting> waiting = this.queue.iterator();
+			while (waiting.hasNext()) {
+				Waiting w = waiting.next();
+				// if the host is blocked for longer than it can wait, there's no point waiting
+				if (w.giveUpAt <= now || this.blockedUntil > w.giveUpAt) {
+					waiting.remove();
+					this.rejected++;
+					rejects.add(w.reject);
+				} else if (nextAt == 0 || w.giveUpAt < nextAt) {
+					nextAt = w.giveUpAt;
+				}
+			}
+
+			if (this.queue.isEmpty() == false && nextAt > 0) {
+				this.scheduleDrain(nextAt);
+			}
+		}
+
+		for (Runnable start : starts) {
+			start.run();
+		}
+		for (Runnable reject : rejects) {
+			reject.run();
+		}
+	}
+
+	private void scheduleDrain(long at) {
+		if (this.wakeUp != null && this.wakeUpAt <= at) {
+			// already waking up in time
+			return;
+		}
+		if (this.wakeUp != null) {
+			this.wakeUp.cancel(false);
+		}
+
+		this.wakeUpAt = at;
+		this.wakeUp = RestRequest.getScheduler().schedule(new Runnable() {
+			public void run() {
+				synchronized (RestHostLimiter.this) {
+					RestHostLimiter.this.wakeUp = null;
+				}
+				RestHostLimiter.this.drain();
+			}
+		}, Math.max(1, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		this.tokens = Math.min(this.burst, this.tokens + (now - this.refilledAt) * this.rate / 1000000000.0);
+		this.refilledAt = now;
+	}
+
+	// Retry-After is either a number of seconds or a date. Returns when to try again, or 0
+	private static long parseRetryAfter(String value) {
+		if (value == null) {
+			return 0;
+		}
+
+		try {
+			return System.currentTimeMillis() + Long.parseLong(value.trim()) * 1000;
+		} catch (NumberFormatException e) {
+			try {
+				Date date = DateUtils.parseDate(value);
+				return date.getTime();
+			} catch (DateParseException e1) {
+				return 0;
+			}
+		}
+	}
+
+	private static class Waiting {
+		private Runnable start;
+		private Runnable reject;
+		private long giveUpAt;
+
+		public Waiting(Runnable start, Runnable reject, long giveUpAt) {
+			this.start = start;
+			this.reject = reject;
+			this.giveUpAt = giveUpAt;
+		}
+	}
+}
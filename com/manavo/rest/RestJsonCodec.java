@@ -0,0 +1,50 @@
+package com.manavo.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class RestJsonCodec implements RestCodec {
+
+	public Object parse(String data) throws JSONException {
+		String trimmed = data.trim();
+
+		if (trimmed.startsWith("{")) {
+			return new JSONObject(trimmed);
+		} else if (trimmed.startsWith("[")) {
+			return new JSONArray(trimmed);
+		} else {
+			// not JSON, so just hand back the text
+			return data;
+		}
+	}
+
+	public Object parse(InputStream in) throws IOException, JSONException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8192];
+		int read;
+
+		try {
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+
+		return this.parse(out.toString("UTF-8"));
+	}
+
+	public String serialize(Object data) throws JSONException {
+		return data.toString();
+	}
+
+	public void write(Object data, OutputStream out) throws IOException, JSONException {
+		out.write(this.serialize(data).getBytes("UTF-8"));
+	}
+}
@@ -0,0 +1,76 @@
+package com.manavo.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.JSONException;
+
+/*
+ * A JSON body that is serialized by the codec when it's sent. When chunked, it's written straight
+ * to the connection, otherwise it's serialized to bytes once so we know the length up front.
+ */
+public class RestJsonEntity extends AbstractHttpEntity {
+
+	private Object data;
+	private RestCodec codec;
+	private byte [] bytes;
+
+	public RestJsonEntity(Object data, RestCodec codec, boolean chunked) {
+		this.data = data;
+		this.codec = codec;
+
+		this.setContentType("application/json; charset=UTF-8");
+		this.setChunked(chunked);
+	}
+
+	private byte [] getBytes() throws IOException {
+		if (this.bytes == null) {
+			try {
+				this.bytes = this.codec.serialize(this.data).getBytes("UTF-8");
+			} catch (JSONException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+		return this.bytes;
+	}
+
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	public long getContentLength() {
+		if (this.isChunked()) {
+			return -1;
+		}
+
+		try {
+			return this.getBytes().length;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	public InputStream getContent() throws IOException {
+		return new ByteArrayInputStream(this.getBytes());
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		if (this.isChunked() == false) {
+			out.write(this.getBytes());
+		} else {
+			try {
+				this.codec.write(this.data, out);
+			} catch (JSONException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+		out.flush();
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+}
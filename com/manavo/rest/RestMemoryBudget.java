@@ -0,0 +1,174 @@
+package com.manavo.rest;
+
+import java.io.File;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * A limit on how much memory the response bodies being read right now can take up, shared by all requests.
+ * A response that doesn't fit is parsed from the file it's being written to (its cache file or one in the
+ * spill directory) once it's all been read. A request only waits for memory before it holds any, so two
+ * requests can't end up waiting on each other; one that runs out part way with nowhere to write fails.
+ * Anything bigger than the max response size fails straight away.
+ */
+public class RestMemoryBudget {
+
+	// memory is reserved in chunks of this, so we don't synchronize for every read
+	static final int CHUNK = 64 * 1024;
+
+	private static long limit = Runtime.getRuntime().maxMemory() / 8;
+	// read by the request threads without the lock
+	private static volatile long spillThreshold = RestMemoryBudget.limit / 4;
+	private static volatile long maxResponseSize = Runtime.getRuntime().maxMemory() / 4;
+	private static volatile long maxWait = 30000;
+	private static volatile File spillDirectory = null;
+
+	private static long inUse = 0;
+	private static long peak = 0;
+	private static long waits = 0;
+	private static long spills = 0;
+	private static long rejections = 0;
+
+	private static final Object lock = new Object();
+
+	// bytes, for all the responses being read at the same time
+	public static void setLimit(long bytes) {
+		synchronized (RestMemoryBudget.lock) {
+			RestMemoryBudget.limit = bytes;
+			RestMemoryBudget.lock.notifyAll();
+		}
+	}
+
+	// responses we know are bigger than this (from their Content-Length) go straight to disk
+	public static void setSpillThreshold(long bytes) {
+		RestMemoryBudget.spillThreshold = bytes;
+	}
+
+	// bigger responses fail with an error, 0 for no limit
+	public static void setMaxResponseSize(long bytes) {
+		RestMemoryBudget.maxResponseSize = bytes;
+	}
+
+	// how long a request that can't spill waits for memory before failing
+	public static void setMaxWait(long millis) {
+		RestMemoryBudget.maxWait = millis;
+	}
+
+	public static void setSpillDirectory(File dir) {
+		synchronized (RestMemoryBudget.lock) {
+			RestMemoryBudget.spillDirectory = dir;
+		}
+	}
+
+	static void setDefaultSpillDirectory(File dir) {
+		synchronized (RestMemoryBudget.lock) {
+			if (RestMemoryBudget.spillDirectory == null) {
+				RestMemoryBudget.spillDirectory = dir;
+			}
+		}
+	}
+
+	static File getSpillDirectory() {
+		return RestMemoryBudget.spillDirectory;
+	}
+
+	static long getSpillThreshold() {
+		return RestMemoryBudget.spillThreshold;
+	}
+
+	static long getMaxResponseSize() {
+		return RestMemoryBudget.maxResponseSize;
+	}
+
+	/*
+	 * Returns false if the memory isn't available (after waiting for it, if wait is true)
+	 */
+	static boolean reserve(long bytes, boolean wait) {
+		synchronized (RestMemoryBudget.lock) {
+			long giveUpAt = System.currentTimeMillis() + RestMemoryBudget.maxWait;
+			boolean waited = false;
+
+			// if nothing else is using any, let it through, otherwise it would never finish
+			while (RestMemoryBudget.inUse > 0 && RestMemoryBudget.inUse + bytes > RestMemoryBudget.limit) {
+				long now = System.currentTimeMillis();
+				if (wait == false) {
+					return false;
+				} else if (now >= giveUpAt) {
+					RestMemoryBudget.rejections++;
+					return false;
+				}
+
+				if (waited == false) {
+					RestMemoryBudget.waits++;
+					waited = true;
+				}
+				try {
+					RestMemoryBudget.lock.wait(giveUpAt - now);
+				} catch (InterruptedException e) {
+					// cancelled
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+
+			RestMemoryBudget.inUse += bytes;
+			RestMemoryBudget.peak = Math.max(RestMemoryBudget.peak, RestMemoryBudget.inUse);
+			return true;
+		}
+	}
+
+	static void release(long bytes) {
+		if (bytes > 0) {
+			synchronized (RestMemoryBudget.lock) {
+				RestMemoryBudget.inUse -= bytes;
+				RestMemoryBudget.lock.notifyAll();
+			}
+		}
+	}
+
+	static void spilled() {
+		synchronized (RestMemoryBudget.lock) {
+			RestMemoryBudget.spills++;
+		}
+	}
+
+	static String tooLarge(long size) {
+		synchronized (RestMemoryBudget.lock) {
+			RestMemoryBudget.rejections++;
+		}
+		return "The response is too large ("+size+" bytes, the limit is "+RestMemoryBudget.maxResponseSize+")";
+	}
+
+	public static long getInUse() {
+		synchronized (RestMemoryBudget.lock) {
+			return RestMemoryBudget.inUse;
+		}
+	}
+
+	public static JSONObject snapshot() {
+		JSONObject o = new JSONObject();
+		synchronized (RestMemoryBudget.lock) {
+			try {
+				o.put("limit", RestMemoryBudget.limit);
+				o.put("inUse", RestMemoryBudget.inUse);
+				o.put("peak", RestMemoryBudget.peak);
+				o.put("waits", RestMemoryBudget.waits);
+				o.put("spills", RestMemoryBudget.spills);
+				o.put("rejections", RestMemoryBudget.rejections);
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+		}
+		return o;
+	}
+
+	public static void reset() {
+		synchronized (RestMemoryBudget.lock) {
+			RestMemoryBudget.peak = RestMemoryBudget.inUse;
+			RestMemoryBudget.waits = 0;
+			RestMemoryBudget.spills = 0;
+			RestMemoryBudget.rejections = 0;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.manavo.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Collects latency histograms (in microseconds) and byte counts per endpoint template.
+ * Everything is recorded once, when the request is delivered or fails, so the per-step events cost nothing.
+ */
+public class RestMetrics implements RestEventListener {
+
+	private HashMap<String, EndpointMetrics> endpoints = new HashMap<String, EndpointMetrics>();
+
+	private static class EndpointMetrics {
+		long requests = 0;
+		long errors = 0;
+		long cacheHits = 0;
+		long wireBytes = 0;
+		long decodedBytes = 0;
+
+		RestHistogram total = new RestHistogram();
+		RestHistogram queue = new RestHistogram();
+		RestHistogram timeToHeaders = new RestHistogram();
+		RestHistogram download = new RestHistogram();
+		RestHistogram parse = new RestHistogram();
+
+		public JSONObject toJSONObject() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("requests", this.requests);
+			o.put("errors", this.errors);
+			o.put("cacheHits", this.cacheHits);
+			o.put("wireBytes", this.wireBytes);
+			o.put("decodedBytes", this.decodedBytes);
+			o.put("total", this.total.toJSONObject());
+			o.put("queue", this.queue.toJSONObject());
+			o.put("timeToHeaders", this.timeToHeaders.toJSONObject());
+			o.put("download", this.download.toJSONObject());
+			o.put("parse", this.parse.toJSONObject());
+			return o;
+		}
+	}
+
+	private EndpointMetrics get(RestCall call) {
+		String key = call.getMethod()+" "+call.getTemplate();
+		EndpointMetrics metrics = this.endpoints.get(key);
+		if (metrics == null) {
+			metrics = new EndpointMetrics();
+			this.endpoints.put(key, metrics);
+		}
+		return metrics;
+	}
+
+	private synchronized void record(RestCall call, boolean failed) {
+		EndpointMetrics metrics = this.get(call);
+
+		metrics.requests++;
+		if (failed) {
+			metrics.errors++;
+		}
+		if (call.isCacheHit()) {
+			metrics.cacheHits++;
+		}
+		metrics.wireBytes += call.getWireBytes();
+		metrics.decodedBytes += call.getDecodedBytes();
+
+		metrics.total.record(call.getTotalTime());
+		metrics.queue.record(call.getQueueTime());
+		metrics.timeToHeaders.record(call.getTimeToHeaders());
+		metrics.download.record(call.getDownloadTime());
+		metrics.parse.record(call.getParseTime());
+	}
+
+	public void queued(RestCall call) {
+	}
+
+	public void cacheLookup(RestCall call, boolean hit) {
+	}
+
+	public void started(RestCall call) {
+	}
+
+	public void headersReceived(RestCall call) {
+	}
+
+	public void bodyReceived(RestCall call) {
+	}
+
+	public void parsed(RestCall call) {
+	}
+
+	public void delivered(RestCall call) {
+		this.record(call, false);
+	}
+
+	public void failed(RestCall call, String error) {
+		this.record(call, true);
+	}
+
+	public synchronized JSONObject snapshot() {
+		JSONObject o = new JSONObject();
+		try {
+			for (Map.Entry<String, EndpointMetrics> entry : this.endpoints.entrySet()) {
+				o.put(entry.getKey(), entry.getValue().toJSONObject());
+			}
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		return o;
+	}
+
+	public synchronized void reset() {
+		this.endpoints.clear();
+	}
+}
@@ -0,0 +1,7 @@
+package com.manavo.rest;
+
+
+public interface RestPageCallback {
+	public void page(int page, Object data);
+	public void end();
+}
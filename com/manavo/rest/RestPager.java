@@ -0,0 +1,240 @@
+package com.manavo.rest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONArray;
+
+import android.os.Handler;
+import android.widget.Toast;
+
+/*
+ * Walks through a paged endpoint one page at a time. While a page is being shown, the next ones are
+ * loaded in the background, so calling next() usually delivers straight away. Every page is saved
+ * in the RestCache, so pages dropped from memory are read back from there instead of the network.
+ *
+ * The pager makes its own requests through the api, so give it an instance that isn't used for anything else.
+ */
+public class RestPager {
+
+	private RestApi api;
+	private String url;
+	private String pageParameter;
+	private List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+
+	private int firstPage = 1;
+	private int readAhead = 1;
+	private int maxPagesInMemory = 5;
+
+	private RestPageCallback callback;
+	private RestErrorCallback errorCallback;
+
+	private TreeMap<Integer, Object> pages = new TreeMap<Integer, Object>();
+	private HashSet<Integer> cached = new HashSet<Integer>();
+	private int nextPage;
+	private int lastPage = -1;
+	private int loading = -1;
+	private boolean waiting = false;
+
+	// loads are posted, so they never start from inside the api's handler (which resets the api once it's done)
+	private Handler handler = new Handler();
+
+	public RestPager(RestApi api, String url, String pageParameter) {
+		this.api = api;
+		this.url = url;
+		this.pageParameter = pageParameter;
+		this.nextPage = this.firstPage;
+	}
+
+	public RestPager setFirstPage(int page) {
+		this.firstPage = page;
+		this.nextPage = page;
+		return this;
+	}
+
+	// how many pages after the one being shown to load in the background (never more than fit in memory next to it)
+	public RestPager setReadAhead(int pages) {
+		this.readAhead = Math.max(pages, 0);
+		return this;
+	}
+
+	// pages beyond this are dropped from memory, oldest first (they're still in the cache)
+	public RestPager setMaxPagesInMemory(int pages) {
+		this.maxPagesInMemory = Math.max(pages, 1);
+		return this;
+	}
+
+	public RestPager setCallback(RestPageCallback callback) {
+		this.callback = callback;
+		return this;
+	}
+
+	public RestPager setErrorCallback(RestErrorCallback errorCallback) {
+		this.errorCallback = errorCallback;
+		return this;
+	}
+
+	public RestPager addParameter(String name, Object value) {
+		this.parameters.add(new BasicNameValuePair(name, value.toString()));
+		return this;
+	}
+
+	public boolean hasNext() {
+		return this.lastPage == -1 || this.nextPage <= this.lastPage;
+	}
+
+	public void next() {
+		if (this.hasNext() == false) {
+			this.callback.end();
+		} else if (this.pages.containsKey(this.nextPage)) {
+			this.deliver(this.nextPage);
+		} else {
+			this.waiting = true;
+			this.schedule();
+		}
+	}
+
+	/*
+	 * Start again from the first page, and get everything from the network
+	 */
+	public void restart() {
+		if (this.loading != -1) {
+			this.api.cancelRequest();
+		}
+		this.pages.clear();
+		this.cached.clear();
+		this.nextPage = this.firstPage;
+		this.lastPage = -1;
+		this.loading = -1;
+		this.waiting = false;
+	}
+
+	protected boolean isEmpty(Object data) {
+		return data == null || (data instanceof JSONArray && ((JSONArray)data).length() == 0);
+	}
+
+	private void deliver(int page) {
+		Object data = this.pages.get(page);
+		this.nextPage = page + 1;
+		this.waiting = false;
+
+		this.callback.page(page, data);
+
+		this.trim();
+		this.schedule();
+	}
+
+	private void trim() {
+		while (this.pages.size() > this.maxPagesInMemory) {
+			// pages we've already gone past go first, then the ones furthest ahead
+			if (this.pages.firstKey() < this.nextPage - 1) {
+				this.pages.remove(this.pages.firstKey());
+			} else {
+				this.pages.remove(this.pages.lastKey());
+			}
+		}
+	}
+
+	private void schedule() {
+		this.handler.post(new Runnable() {
+			public void run() {
+				RestPager.this.loadNext();
+			}
+		});
+	}
+
+	private void loadNext() {
+		if (this.loading != -1) {
+			return;
+		}
+
+		// the page being shown stays in memory, so reading ahead further than the rest of the room would
+		// only drop pages as they come in (and load them again, forever)
+		int readAhead = Math.min(this.readAhead, this.maxPagesInMemory - 1);
+		int until = this.waiting ? this.nextPage : this.nextPage + readAhead - 1;
+		for (int page=this.nextPage; page<=until; page++) {
+			if (this.lastPage != -1 && page > this.lastPage) {
+				return;
+			}
+			if (this.pages.containsKey(page) == false) {
+				this.load(page);
+				return;
+			}
+		}
+	}
+
+	private void load(final int page) {
+		this.loading = page;
+
+		this.api.reset();
+		for (NameValuePair p : this.parameters) {
+			this.api.addParameter(p.getName(), p.getValue());
+		}
+		this.api.addParameter(this.pageParameter, page);
+
+		// network the first time, after that it's in the cache
+		if (this.cached.contains(page)) {
+			this.api.setCachePolicy(RestCache.CachePolicy.CACHE_ELSE_NETWORK);
+		} else {
+			this.api.setCachePolicy(RestCache.CachePolicy.NETWORK_ONLY);
+		}
+
+		if (page != this.nextPage || this.waiting == false) {
+			// read ahead quietly, no loading dialog
+			this.api.setLoadingMessage(null);
+		}
+
+		this.api.setCallback(new RestCallback() {
+			public void success(Object obj) {
+				RestPager.this.onLoaded(page, obj);
+			}
+		});
+		this.api.setErrorCallback(new RestErrorCallback() {
+			public void error(String message) {
+				RestPager.this.onFailed(page, message);
+			}
+		});
+		this.api.get(this.url);
+	}
+
+	private void onLoaded(int page, Object data) {
+		this.loading = -1;
+		this.cached.add(page);
+
+		if (this.isEmpty(data)) {
+			this.lastPage = page - 1;
+			if (this.waiting && page == this.nextPage) {
+				this.waiting = false;
+				this.callback.end();
+			}
+			return;
+		}
+
+		this.pages.put(page, data);
+
+		if (this.waiting && page == this.nextPage) {
+			this.deliver(page);
+		} else {
+			this.trim();
+			this.schedule();
+		}
+	}
+
+	private void onFailed(int page, String message) {
+		this.loading = -1;
+
+		// a failed read ahead is tried again when the page is actually needed
+		if (this.waiting && page == this.nextPage) {
+			this.waiting = false;
+			if (this.errorCallback != null) {
+				this.errorCallback.error(message);
+			} else {
+				Toast.makeText(this.api.context, message, Toast.LENGTH_LONG).show();
+			}
+		}
+	}
+}
@@ -1,26 +1,39 @@
 package com.manavo.rest;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import javax.net.ssl.SSLSocket;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -31,17 +44,26 @@ import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.AbortableHttpRequest;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
@@ -53,7 +75,6 @@ import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -73,22 +94,51 @@ public class RestRequest {
 	private Handler handler;
 	private ExecuteAsyncRequest asyncTask;
 	
-	private boolean acceptAllSslCertificates = false;
-
-    private DefaultHttpClient httpClient;
-
 	private boolean useSsl = true;
 	
 	private List<NameValuePair> data;
 	
 	private String userAgent = null;
+	private LinkedHashMap<String, Header> headers = new LinkedHashMap<String, Header>();
     private HttpContext requestContext;
 
     private String contentType = null;
 
+    private RestCodec codec = new RestJsonCodec();
+
+    private Class<?> bindType = null;
+    private boolean bindList = false;
+
+    private AbstractHttpEntity body = null;
+    private boolean chunked = false;
+    private boolean gzipRequests = false;
+    private boolean debug = false;
+
+    private long deadline = 0;
+    private boolean hostLimits = false;
+    private File download = null;
+    private String ifNoneMatch = null;
+    private String ifModifiedSince = null;
+    private File cachedCopy = null;
+    private boolean deliverCachedCopy = false;
+    private File cacheFile = null;
+    private boolean cacheConditional = false;
+    private boolean cacheOnly = false;
+
+    private RestEventListener eventListener = null;
+    private RestCall call = null;
+
+    private static ScheduledExecutorService scheduler;
+    private static AtomicLong abortedRequests = new AtomicLong();
+    private static AtomicLong bytesSavedByAborts = new AtomicLong();
+
+    private static ClientConnectionManager connectionManager;
+    private DefaultHttpClient httpClient;
+
     public RestRequest() {
         this.requestContext = new BasicHttpContext();
-        this.httpClient = this.getNewHttpClient();
+        // the client is shared, but cookies stay with this request object like they used to
+        this.requestContext.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
         
         // Default port to be 80
         this.port = 80;
@@ -96,6 +146,98 @@ public class RestRequest {
         this.sslPort = 443;
     }
 
+    public void setCodec(RestCodec codec) {
+        this.codec = codec;
+    }
+
+    /*
+     * Successful responses get parsed and bound to this type on the background thread,
+     * and the bound object is passed to the handler in Message.obj
+     */
+    public void setBinding(Class<?> type, boolean list) {
+        this.bindType = type;
+        this.bindList = list;
+    }
+
+    // when set, the next request sends this instead of the parameters (if it's a post/put, otherwise it's dropped)
+    public void setBody(File file, String contentType) {
+        this.body = new FileEntity(file, contentType);
+    }
+
+    public void setBody(InputStream in, long length, String contentType) {
+        InputStreamEntity entity = new InputStreamEntity(in, length);
+        entity.setContentType(contentType);
+        this.body = entity;
+    }
+
+    void clearBody() {
+        this.body = null;
+    }
+
+    public void setChunked(boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    public void setGzipRequests(boolean gzip) {
+        this.gzipRequests = gzip;
+    }
+
+    // requests that take longer than this (in milliseconds) are aborted and get a "Request timed out" error, 0 to disable
+    public void setDeadline(long millis) {
+        this.deadline = millis;
+    }
+
+    // go through the RestHostLimiter for this host, so we back off when it's struggling
+    public void setHostLimits(boolean enabled) {
+        this.hostLimits = enabled;
+    }
+
+    // spool the body of the next get into this file (resuming a previous attempt if there is one), instead of reading it into memory
+    public void setDownloadFile(File file) {
+        this.download = file;
+    }
+
+    // validators of the cached copy, so the next request can come back 304 Not Modified instead of with the whole body
+    public void setValidators(String etag, String lastModified) {
+        this.ifNoneMatch = etag;
+        this.ifModifiedSince = lastModified;
+    }
+
+    // the cache file the validators came from. On a 304 it's read (and bound) in the background if deliver is set
+    public void setCachedCopy(File file, boolean deliver) {
+        this.cachedCopy = file;
+        this.deliverCachedCopy = deliver;
+    }
+
+    /*
+     * The next get is written into this cache file as it's read (on the background thread, as the same bytes are
+     * parsed). If conditional is set, its validators and SHA1 are kept next to it.
+     */
+    public void setCacheFile(File file, boolean conditional) {
+        this.cacheFile = file;
+        this.cacheConditional = conditional;
+        this.cacheOnly = false;
+    }
+
+    // the same, but the response is only written to the cache, it isn't parsed or handed over
+    public void setCacheUpdate(File file, boolean conditional) {
+        this.setCacheFile(file, conditional);
+        this.cacheOnly = true;
+    }
+
+    public void setEventListener(RestEventListener listener) {
+        this.eventListener = listener;
+    }
+
+    // the call that the next request should report its timings to
+    public void setCall(RestCall call) {
+        this.call = call;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
     public void setContentType(String type) {
         this.contentType = type;
     }
@@ -104,7 +246,15 @@ public class RestRequest {
         return this.requestContext;
     }
 
-    public DefaultHttpClient getHttpClient() {
+    /*
+     * Created the first time it's needed, so constructing a RestRequest (usually in onCreate) stays cheap.
+     * Each request object has its own client, so changes to its params or credentials stay with it, but
+     * they all share one connection pool.
+     */
+    public synchronized DefaultHttpClient getHttpClient() {
+        if (this.httpClient == null) {
+            this.httpClient = new DefaultHttpClient(RestRequest.getConnectionManager(), RestRequest.createParams());
+        }
         return this.httpClient;
     }
 	
@@ -133,8 +283,13 @@ public class RestRequest {
 		this.useSsl = ssl;
 	}
 	
+	/*
+	 * This never took effect (the client was created before it could be called), and turning off certificate
+	 * checks for everyone who calls it now would be a nasty surprise, so it's kept as a no-op
+	 */
+	@Deprecated
 	public void acceptAllSslCertificates() {
-		this.acceptAllSslCertificates = true;
+		Log.w("RestRequest", "acceptAllSslCertificates() is deprecated and does nothing, certificates are always checked");
 	}
 	
 	public void setData(List<NameValuePair> data) {
@@ -145,23 +300,27 @@ public class RestRequest {
 		this.userAgent = agent;
 	}
 	
+	// sent with every request from now on, null to remove it
+	public void setHeader(String name, String value) {
+		if (value == null) {
+			this.headers.remove(name.toLowerCase());
+		} else {
+			this.headers.put(name.toLowerCase(), new BasicHeader(name, value));
+		}
+	}
+	
+	public String getHeader(String name) {
+		Header header = this.headers.get(name.toLowerCase());
+		return (header != null) ? header.getValue() : null;
+	}
+	
+	String getUsername() {
+		return this.username;
+	}
+	
 	public void get(String url) {
 		if (this.data.size() > 0) {
-			// if we don't already have some query string parameters, add a ?
-			if (url.indexOf("?") == -1) {
-				url += "?";
-			} else { // if query sting parameter already exist, then keep adding to them
-				url += "&";
-			}
-			for (int i=0; i<this.data.size(); i++) {
-				NameValuePair p = this.data.get(i);
-				try {
-					url += p.getName() + "=" + URLEncoder.encode(p.getValue(), "utf-8") + "&";
-				} catch (UnsupportedEncodingException e) {
-					e.printStackTrace();
-				}
-			}
-			url = url.substring(0, url.length()-1);
+			url = RestEndpoint.addQuery(url, this.data);
 		}
 		HttpGet httpGet = new HttpGet(url);
 		this.prepareRequest(httpGet);
@@ -169,16 +328,34 @@ public class RestRequest {
 	
 	public void post(String url) {
 		HttpPost httpPost = new HttpPost(url);
-		httpPost.setEntity(this.prepareData(this.data));
+		httpPost.setEntity(this.prepareBody());
 		this.prepareRequest(httpPost);
 	}
 	
 	public void put(String url) {
 		HttpPut httpPut = new HttpPut(url);
-		httpPut.setEntity(this.prepareData(this.data));
+		httpPut.setEntity(this.prepareBody());
 		this.prepareRequest(httpPut);
 	}
 	
+	private HttpEntity prepareBody() {
+		HttpEntity entity;
+		
+		if (this.body != null) {
+			// if we don't know the length, it has to be chunked
+			this.body.setChunked(this.chunked || this.body.getContentLength() < 0);
+			entity = this.body;
+		} else {
+			entity = this.prepareData(this.data);
+		}
+		
+		if (entity != null && this.gzipRequests == true) {
+			entity = new RestGzipEntity(entity);
+		}
+		
+		return entity;
+	}
+	
 	public void delete(String url) {
 		HttpDelete httpDelete = new HttpDelete(url);
 		this.prepareRequest(httpDelete);
@@ -193,21 +370,21 @@ public class RestRequest {
                     data.put(p.getName(), p.getValue());
                 }
 
-                Log.e("RestRequestSending", data.toString());
+                if (this.debug == true) {
+                    Log.d("RestRequestSending", this.codec.serialize(data));
+                }
 
-                StringEntity se = new StringEntity(data.toString());
-                se.setContentType(new BasicHeader(HTTP.CONTENT_TYPE, "application/json"));
-                return se;
+                // serialized by the codec when it's sent, rather than held as a String and then again as bytes
+                return new RestJsonEntity(data, this.codec, this.chunked);
             } catch (JSONException e) {
                 e.printStackTrace();
                 return null;
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-                return null;
             }
         } else {
             try {
-                return new UrlEncodedFormEntity(nameValuePairs, "UTF-8");
+                UrlEncodedFormEntity entity = new UrlEncodedFormEntity(nameValuePairs, "UTF-8");
+                entity.setChunked(this.chunked);
+                return entity;
             } catch (UnsupportedEncodingException e) {
                 e.printStackTrace();
                 return null;
@@ -221,23 +398,517 @@ public class RestRequest {
         }
 
         request.setHeader("Accept", "application/json");
+        for (Header header : this.headers.values()) {
+        	request.setHeader(header);
+        }
+        if (this.ifNoneMatch != null) {
+        	request.setHeader("If-None-Match", this.ifNoneMatch);
+        }
+        if (this.ifModifiedSince != null) {
+        	request.setHeader("If-Modified-Since", this.ifModifiedSince);
+        }
+        this.ifNoneMatch = null;
+        this.ifModifiedSince = null;
+        // streams can only be sent once, and a body only goes with the request it was set for
+        this.body = null;
 
-		this.asyncTask = new ExecuteAsyncRequest();
-		this.asyncTask.execute(request);
+		this.asyncTask = new ExecuteAsyncRequest(request, this.bindType, this.bindList);
+		if (this.eventListener != null && this.call != null) {
+			this.asyncTask.call = this.call;
+			this.asyncTask.listener = this.eventListener;
+			this.call.queuedAt = System.nanoTime();
+			this.eventListener.queued(this.call);
+		}
+		this.call = null;
+		if (request instanceof HttpGet) {
+			this.asyncTask.download = this.download;
+			this.asyncTask.cachedCopy = this.cachedCopy;
+			this.asyncTask.deliverCachedCopy = this.deliverCachedCopy;
+			this.asyncTask.cacheFile = this.cacheFile;
+			this.asyncTask.cacheConditional = this.cacheConditional;
+			this.asyncTask.cacheOnly = this.cacheOnly;
+		}
+		this.download = null;
+		this.cachedCopy = null;
+		this.cacheFile = null;
+		this.cacheOnly = false;
+		if (this.deadline > 0) {
+			this.asyncTask.scheduleDeadline(this.deadline);
+		}
+		if (this.hostLimits == true) {
+			this.submitLimited(this.asyncTask, request);
+		} else {
+			this.asyncTask.execute(request);
+		}
+	}
+	
+	/*
+	 * Waits for a slot from the host's limiter without holding anything up (execute runs AsyncTasks one at a time,
+	 * for the whole app), then runs on the thread pool, so requests to the host really can go out in parallel
+	 */
+	private void submitLimited(final ExecuteAsyncRequest task, final HttpRequest request) {
+		final RestHostLimiter limiter = RestHostLimiter.forHost(this.host);
+		final Handler handler = this.handler;
+		final String host = this.host;
+		
+		limiter.submit(new Runnable() {
+			public void run() {
+				// AsyncTasks have to be started from the main thread
+				handler.post(new Runnable() {
+					public void run() {
+						task.startLimited(limiter, request);
+					}
+				});
+			}
+		}, new Runnable() {
+			public void run() {
+				task.clearDeadline();
+				if (task.isCancelled() == false) {
+					Bundle b = new Bundle();
+					b.putString("error", "Too many requests to "+host+", please try again later");
+					
+					Message m = new Message();
+					m.setData(b);
+					m.setTarget(handler);
+					m.sendToTarget();
+				}
+			}
+		});
 	}
 	
 	public void cancelRequest() {
 		if (this.asyncTask != null) {
-			this.asyncTask.cancel(true);
+			this.asyncTask.abort(false);
+		}
+	}
+	
+	static synchronized ScheduledExecutorService getScheduler() {
+		if (RestRequest.scheduler == null) {
+			// two threads, so a warm up that's slow to connect can't hold up deadlines and aborts on its own
+			RestRequest.scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RestRequest");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return RestRequest.scheduler;
+	}
+	
+	public static long getAbortedRequests() {
+		return RestRequest.abortedRequests.get();
+	}
+	
+	// bytes we didn't have to download, because the request was aborted before the body was read (only counted when the length was known)
+	public static long getBytesSavedByAborts() {
+		return RestRequest.bytesSavedByAborts.get();
+	}
+	
+	/*
+	 * A successful response. It's parsed straight from the bytes as they come in, and if it's going to be cached
+	 * the same bytes are written into a file next to the cache file, which then replaces it. Memory for the parsed
+	 * result is reserved from the RestMemoryBudget as it's read. If that runs out, the rest only goes to the file,
+	 * and it's parsed from there once it's all in (as are responses we know are over the spill threshold).
+	 */
+	private void readResponse(HttpResponse response, ExecuteAsyncRequest task, Bundle b) throws IOException, JSONException {
+		HttpEntity entity = response.getEntity();
+		Header contentEncoding = response.getFirstHeader("Content-Encoding");
+		
+		if (entity != null && RestRequest.isUtf8(RestDecoders.getCharset(entity)) == false) {
+			// the codecs only read UTF-8, anything else has to go through a String
+			this.readText(entity, contentEncoding, task, b);
+			return;
+		}
+		
+		OutputStream file = null;
+		if (entity != null && task.cacheFile != null) {
+			task.spill = File.createTempFile("restapi", ".part", task.cacheFile.getParentFile());
+			file = new BufferedOutputStream(new FileOutputStream(task.spill), 8192);
+		} else if (entity != null && entity.getContentLength() > RestMemoryBudget.getSpillThreshold() && RestMemoryBudget.getSpillDirectory() != null) {
+			task.spill = File.createTempFile("restapi", ".spill", RestMemoryBudget.getSpillDirectory());
+			RestMemoryBudget.spilled();
+			file = new BufferedOutputStream(new FileOutputStream(task.spill), 8192);
+		}
+		
+		// with somewhere to write it, a response we know is big is only parsed once it's all in
+		boolean parse = task.cacheOnly == false && (file == null || entity.getContentLength() <= RestMemoryBudget.getSpillThreshold());
+		boolean parsed = false;
+		if (entity != null) {
+			BodyInputStream body = new BodyInputStream(this.openEntity(entity, contentEncoding, task), file, task, parse);
+			try {
+				if (parse == true) {
+					try {
+						task.result = this.codec.parse(body);
+						parsed = true;
+					} catch (IOException e) {
+						if (body.outOfMemory == false) {
+							throw e;
+						}
+					} catch (JSONException e) {
+						if (body.outOfMemory == false) {
+							throw e;
+						}
+					}
+					
+					if (parsed == false) {
+						// the budget ran out, what we have so far is already in the file
+						task.result = null;
+						RestMemoryBudget.spilled();
+						RestMemoryBudget.release(task.reserved);
+						task.reserved = 0;
+					}
+				}
+				// anything the codec didn't read still goes to the file
+				body.drain();
+				if (file != null) {
+					file.close();
+					file = null;
+				}
+			} finally {
+				if (file != null) {
+					try {
+						file.close();
+					} catch (IOException e) {
+						// it's going anyway
+					}
+				}
+				body.finish();
+			}
+		} else if (task.cacheOnly == false) {
+			parsed = true;
+		}
+		task.bodyReceived();
+		
+		if (task.cacheFile != null && task.spill != null) {
+			boolean changed = RestCache.store(task.cacheFile, task.spill, task.cacheConditional, b.getString("etag"), b.getString("lastModified"));
+			task.spill = null;
+			RestRequest.putChanged(task, b, changed);
+			if (parsed == false && task.cacheOnly == false) {
+				b.putString("file", task.cacheFile.getPath());
+			}
+		} else if (task.cacheOnly == true) {
+			// nothing came back to cache
+			b.putBoolean("cacheUpdated", false);
+		} else if (task.spill != null && parsed == false) {
+			b.putString("spill", task.spill.getPath());
+		}
+		
+		if (parsed == true) {
+			b.putBoolean("parsed", true);
+		}
+	}
+	
+	// a response that isn't UTF-8, read into a String and parsed from that
+	private void readText(HttpEntity entity, Header contentEncoding, ExecuteAsyncRequest task, Bundle b) throws IOException, JSONException {
+		String data = this.readEntity(entity, contentEncoding, task, true);
+		task.bodyReceived();
+		
+		if (task.spill != null) {
+			// written out as UTF-8, so it can be read like any other
+			if (task.cacheFile != null) {
+				boolean changed = RestCache.store(task.cacheFile, task.spill, task.cacheConditional, b.getString("etag"), b.getString("lastModified"));
+				task.spill = null;
+				RestRequest.putChanged(task, b, changed);
+				if (task.cacheOnly == false) {
+					b.putString("file", task.cacheFile.getPath());
+				}
+			} else {
+				b.putString("spill", task.spill.getPath());
+			}
+			return;
+		}
+		
+		if (task.cacheOnly == false) {
+			task.result = this.codec.parse(data);
+			b.putBoolean("parsed", true);
+		}
+		if (task.cacheFile != null) {
+			boolean changed = RestCache.store(task.cacheFile, data.trim(), task.cacheConditional, b.getString("etag"), b.getString("lastModified"));
+			RestRequest.putChanged(task, b, changed);
+		}
+	}
+	
+	private static void putChanged(ExecuteAsyncRequest task, Bundle b, boolean changed) {
+		if (task.cacheOnly == true) {
+			b.putBoolean("cacheUpdated", changed);
+		} else {
+			b.putBoolean("changed", changed);
+		}
+	}
+	
+	private static boolean isUtf8(String charset) {
+		return charset.equalsIgnoreCase(HTTP.UTF_8) || charset.equalsIgnoreCase("UTF8") || charset.equalsIgnoreCase(HTTP.US_ASCII);
+	}
+	
+	// the body as it comes off the wire, decoded (and counted before and after)
+	private InputStream openEntity(HttpEntity entity, Header contentEncoding, ExecuteAsyncRequest task) throws IOException {
+		task.contentLength = entity.getContentLength();
+		long maxSize = RestMemoryBudget.getMaxResponseSize();
+		if (maxSize > 0 && task.contentLength > maxSize) {
+			throw new IOException(RestMemoryBudget.tooLarge(task.contentLength));
+		}
+		
+		CountingInputStream counted = new CountingInputStream(entity.getContent());
+		task.counter = counted;
+		
+		InputStream instream = counted;
+		task.decoded = counted;
+		if (RestDecoders.isIdentity(contentEncoding) == false) {
+			// decoded as it's read, the compressed body is never held anywhere
+			task.decoded = new CountingInputStream(RestDecoders.decode(instream, contentEncoding));
+			instream = task.decoded;
+		}
+		return instream;
+	}
+	
+	/*
+	 * Reads the body into a String, within the RestMemoryBudget. If the budget runs out and spilling is allowed,
+	 * the rest goes to a file instead (task.spill), and null is returned. If it isn't (error bodies), what was
+	 * read so far is returned.
+	 */
+	private String readEntity(HttpEntity entity, Header contentEncoding, ExecuteAsyncRequest task, boolean canSpill) throws IOException {
+		if (entity == null) {
+			return null;
+		}
+		
+		InputStream instream = this.openEntity(entity, contentEncoding, task);
+		long maxSize = RestMemoryBudget.getMaxResponseSize();
+		String charset = RestDecoders.getCharset(entity);
+		
+		InputStreamReader reader = new InputStreamReader(instream, charset);
+		Writer spill = null;
+		boolean complete = false;
+		try {
+			if (canSpill == true && task.contentLength > RestMemoryBudget.getSpillThreshold()) {
+				spill = this.startSpill(task);
+			}
+			
+			StringBuilder data = null;
+			if (spill == null) {
+				data = new StringBuilder(task.contentLength > 0 ? (int)Math.min(task.contentLength, RestMemoryBudget.CHUNK / 2) : 4096);
+			}
+			
+			char [] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				if (maxSize > 0 && task.decoded.getCount() > maxSize) {
+					throw new IOException(RestMemoryBudget.tooLarge(task.decoded.getCount()));
+				}
+				
+				if (spill == null) {
+					// chars are 2 bytes each, and the StringBuilder can grow to double that while copying
+					long needed = (data.length() + read) * 2L;
+					if (needed > task.reserved) {
+						long more = Math.max(needed - task.reserved, RestMemoryBudget.CHUNK);
+						// if we can spill, don't wait around for memory. Otherwise only wait while we aren't holding any,
+						// two requests each holding some and waiting for the other's would never get anywhere
+						boolean wait = task.reserved == 0 && (canSpill == false || RestMemoryBudget.getSpillDirectory() == null);
+						if (RestMemoryBudget.reserve(more, wait) == true) {
+							task.reserved += more;
+						} else if (canSpill == true && RestMemoryBudget.getSpillDirectory() != null) {
+							spill = this.startSpill(task);
+							spill.write(data.toString());
+							data = null;
+							RestMemoryBudget.release(task.reserved);
+							task.reserved = 0;
+						} else if (canSpill == false) {
+							// the start of an error body says what went wrong, that'll do
+							break;
+						} else {
+							throw new IOException("Not enough memory to read the response");
+						}
+					}
+				}
+				
+				if (spill != null) {
+					spill.write(buffer, 0, read);
+				} else {
+					data.append(buffer, 0, read);
+				}
+			}
+			
+			String result = null;
+			if (spill != null) {
+				spill.close();
+			} else {
+				result = data.toString();
+			}
+			complete = true;
+			return result;
+		} finally {
+			if (complete == false && spill != null) {
+				try {
+					spill.close();
+				} catch (IOException e) {
+					// it's going anyway
+				}
+				task.discardSpill();
+			}
+			reader.close();
+		}
+	}
+	
+	private Writer startSpill(ExecuteAsyncRequest task) throws IOException {
+		File dir = RestMemoryBudget.getSpillDirectory();
+		if (dir == null) {
+			throw new IOException("Nowhere to write a response that doesn't fit in memory");
 		}
+		
+		task.spill = File.createTempFile("restapi", ".spill", dir);
+		RestMemoryBudget.spilled();
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(task.spill), HTTP.UTF_8), 8192);
 	}
 	
-	private Bundle executeRequest(HttpRequest request) {
+	/*
+	 * Downloads are spooled into <file>.part, with the ETag next to it in <file>.etag. If a previous attempt
+	 * left a part behind, we ask for the rest of it only, as long as the ETag still matches (If-Range).
+	 * Ranges are over the raw bytes, so we ask for the body without compression.
+	 */
+	private void prepareDownload(HttpRequest request, File file) {
+		File part = new File(file.getPath()+".part");
+		String etag = RestRequest.readSidecar(new File(file.getPath()+".etag"));
+		
+		if (part.length() > 0 && etag != null) {
+			request.setHeader("Range", "bytes="+part.length()+"-");
+			request.setHeader("If-Range", etag);
+		} else {
+			RestRequest.discardDownload(file);
+		}
+		request.setHeader("Accept-Encoding", "identity");
+	}
+	
+	private File download(HttpResponse response, ExecuteAsyncRequest task) throws IOException {
+		File part = new File(task.download.getPath()+".part");
+		File etagFile = new File(task.download.getPath()+".etag");
+		
+		HttpEntity entity = response.getEntity();
+		Header contentEncoding = response.getFirstHeader("Content-Encoding");
+		boolean identity = RestDecoders.isIdentity(contentEncoding);
+		
+		boolean append = false;
+		if (response.getStatusLine().getStatusCode() == 206) {
+			// only any use if it carries on exactly where our part file ends
+			if (identity == false || RestRequest.getRangeStart(response.getFirstHeader("Content-Range")) != part.length()) {
+				RestRequest.discardDownload(task.download);
+				throw new IOException("Unexpected partial response, the download will start over");
+			}
+			append = true;
+		} else {
+			// a full response, either the first attempt or the file changed since the last one
+			Header etag = response.getFirstHeader("ETag");
+			if (identity == true && etag != null && etag.getValue().startsWith("W/") == false) {
+				RestRequest.writeSidecar(etagFile, etag.getValue());
+			} else {
+				etagFile.delete();
+			}
+		}
+		
+		task.contentLength = entity.getContentLength();
+		CountingInputStream counted = new CountingInputStream(entity.getContent());
+		task.counter = counted;
+		task.decoded = counted;
+		
+		InputStream in = counted;
+		if (identity == false) {
+			// the server compressed it anyway, so it can't be resumed, but we can still use it
+			task.decoded = new CountingInputStream(RestDecoders.decode(counted, contentEncoding));
+			in = task.decoded;
+		}
+		
+		OutputStream out = new FileOutputStream(part, append);
+		try {
+			byte [] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			out.close();
+			in.close();
+		}
+		
+		// the part file becomes the cache file, no copying
+		if (part.renameTo(task.download) == false) {
+			task.download.delete();
+			if (part.renameTo(task.download) == false) {
+				throw new IOException("Could not move the download into the cache");
+			}
+		}
+		etagFile.delete();
+		
+		return task.download;
+	}
+	
+	private static long getRangeStart(Header contentRange) {
+		// bytes 500-999/1000
+		if (contentRange == null) {
+			return -1;
+		}
+		
+		String value = contentRange.getValue().trim();
+		int start = value.indexOf(' ');
+		int end = value.indexOf('-');
+		if (start == -1 || end < start) {
+			return -1;
+		}
+		
+		try {
+			return Long.parseLong(value.substring(start + 1, end).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	private static void discardDownload(File file) {
+		new File(file.getPath()+".part").delete();
+		new File(file.getPath()+".etag").delete();
+	}
+	
+	private static String readSidecar(File file) {
+		if (file.exists() == false) {
+			return null;
+		}
+		
+		try {
+			BufferedReader r = new BufferedReader(new FileReader(file));
+			try {
+				return r.readLine();
+			} finally {
+				r.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private static void writeSidecar(File file, String value) {
+		try {
+			FileWriter out = new FileWriter(file);
+			out.write(value);
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private Bundle executeRequest(HttpRequest request, ExecuteAsyncRequest task) {
         Bundle b = new Bundle();
+        
+        task.started();
+        long startedAt = System.currentTimeMillis();
+        long latency = 0;
+        int statusCode = 0;
+        String retryAfter = null;
 
         try {
+            if (task.aborted == true) {
+            	// the deadline passed while it was waiting for a slot
+            	throw new IOException("Request aborted");
+            }
+            
             if (this.userAgent != null) {
-                this.httpClient.getParams().setParameter(CoreProtocolPNames.USER_AGENT, this.userAgent);
+                request.getParams().setParameter(CoreProtocolPNames.USER_AGENT, this.userAgent);
 	        }
 	        
 	        if (this.username != null && this.password != null) {
@@ -245,131 +916,545 @@ public class RestRequest {
 	            BasicScheme basicAuth = new BasicScheme();
 	            request.addHeader(basicAuth.authenticate(upc, request));
 	        }
-            request.addHeader("Accept-Encoding", "gzip");
-            
-            HttpHost targetHost;
-            if (this.useSsl == false) {
-            	targetHost = new HttpHost(this.host, this.port, "http");
+            if (task.download != null) {
+            	this.prepareDownload(request, task.download);
             } else {
-            	targetHost = new HttpHost(this.host, this.sslPort, "https");
+            	request.addHeader("Accept-Encoding", RestDecoders.getAcceptEncoding());
+            }
+            
+            HttpResponse response = this.getHttpClient().execute(this.getTargetHost(), request, this.requestContext);
+            statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 304 && task.cachedCopy != null && task.cachedCopy.exists() == false) {
+            	// the cached copy was deleted while we were asking, so it's a miss after all
+            	if (response.getEntity() != null) {
+            		response.getEntity().consumeContent();
+            	}
+            	request.removeHeaders("If-None-Match");
+            	request.removeHeaders("If-Modified-Since");
+            	response = this.getHttpClient().execute(this.getTargetHost(), request, this.requestContext);
+            	statusCode = response.getStatusLine().getStatusCode();
+            }
+            latency = System.currentTimeMillis() - startedAt;
+            task.headersReceived(statusCode);
+            if (response.getFirstHeader("Retry-After") != null) {
+            	retryAfter = response.getFirstHeader("Retry-After").getValue();
             }
-            HttpResponse response = this.httpClient.execute(targetHost, request, this.requestContext);
  
-            String responseData;
-            HttpEntity entity = response.getEntity();
-            Header contentEncoding = response.getFirstHeader("Content-Encoding");
-            if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
-                InputStream instream = entity.getContent();
-                instream = new GZIPInputStream(instream);
-                
-                InputStreamReader reader = new InputStreamReader(instream);
-                BufferedReader in = new BufferedReader(reader);
-
-                String readed;
-                responseData = "";
-                while ((readed = in.readLine()) != null) {
-                	responseData += (readed);
-                }
-            } else {
-            	responseData = EntityUtils.toString(entity);
+            if (statusCode >= 200 && statusCode < 300) {
+            	// so the cached copy can be validated next time
+            	if (response.getFirstHeader("ETag") != null) {
+            		b.putString("etag", response.getFirstHeader("ETag").getValue());
+            	}
+            	if (response.getFirstHeader("Last-Modified") != null) {
+            		b.putString("lastModified", response.getFirstHeader("Last-Modified").getValue());
+            	}
             }
             
-            if (response.getStatusLine().getStatusCode() >= 200 && response.getStatusLine().getStatusCode() < 300) {
-            	b.putString("data", responseData);
+            if (statusCode == 304) {
+            	if (response.getEntity() != null) {
+            		response.getEntity().consumeContent();
+            	}
+            	task.bodyReceived();
+            	b.putBoolean("notModified", true);
+            } else if (task.download != null && (statusCode == 200 || statusCode == 206)) {
+            	File file = this.download(response, task);
+            	task.bodyReceived();
+            	if (file.equals(task.cacheFile) == true) {
+            		// it's the cached copy now, so keep its validators with it
+            		boolean changed = RestCache.store(file, file, task.cacheConditional, b.getString("etag"), b.getString("lastModified"));
+            		RestRequest.putChanged(task, b, changed);
+            	}
+            	if (task.cacheOnly == false) {
+            		b.putString("file", file.getPath());
+            	}
+            } else if (statusCode >= 200 && statusCode < 300) {
+            	this.readResponse(response, task, b);
             } else {
-            	b.putString("statusCodeError", responseData);
-                b.putInt("statusCodeErrorNumber", response.getStatusLine().getStatusCode());
+            	if (task.download != null && statusCode == 416) {
+            		// what we have doesn't line up with the file anymore, start over next time
+            		RestRequest.discardDownload(task.download);
+            	}
+            	
+	            // error bodies are small and wanted as a String
+	            String responseData = this.readEntity(response.getEntity(), response.getFirstHeader("Content-Encoding"), task, false);
+	            task.bodyReceived();
+	            
+	            b.putString("statusCodeError", responseData);
+	            b.putInt("statusCodeErrorNumber", response.getStatusLine().getStatusCode());
             }
 	    } catch (Exception e) {
-	        e.printStackTrace();
-	        b.putString("error", e.getMessage());
+	    	task.discardSpill();
+	    	
+	    	if (task.aborted == true) {
+	    		RestRequest.abortedRequests.incrementAndGet();
+	    		if (task.contentLength > 0) {
+	    			long read = (task.counter != null) ? task.counter.getCount() : 0;
+	    			RestRequest.bytesSavedByAborts.addAndGet(Math.max(0, task.contentLength - read));
+	    		}
+	    		
+	    		b.putString("error", task.deadlineExceeded ? "Request timed out" : "Request cancelled");
+	    	} else {
+	    		e.printStackTrace();
+	    		b.putString("error", e.getMessage());
+	    		
+	    		// make sure the connection goes back to the pool, instead of waiting for a body nobody will read
+	    		if (request instanceof AbortableHttpRequest) {
+	    			((AbortableHttpRequest)request).abort();
+	    		}
+	    	}
+	    } finally {
+	    	task.clearDeadline();
+	    	// the time to the headers is what tells us how the server is doing, the body depends on its size
+	    	task.releaseSlot(statusCode, latency, retryAfter);
 	    }
 	    
 	    return b;
 	}
 	
-	private class ExecuteAsyncRequest extends AsyncTask<HttpRequest, Void, Bundle> {
+	private class ExecuteAsyncRequest extends AsyncTask<HttpRequest, Void, Message> {
+		private HttpRequest request;
+		private Class<?> bindType;
+		private boolean bindList;
+		
+		private volatile boolean aborted = false;
+		private volatile boolean deadlineExceeded = false;
+		private ScheduledFuture<?> deadline;
+		private long contentLength = -1;
+		private CountingInputStream counter;
+		private CountingInputStream decoded;
+		private File download;
+		private File cachedCopy;
+		private boolean deliverCachedCopy;
+		private File cacheFile;
+		private boolean cacheConditional;
+		private boolean cacheOnly;
+		// the parsed (and bound) response
+		private Object result;
+		private File spill;
+		private long reserved = 0;
+		
+		private RestCall call;
+		private RestEventListener listener;
+		private RestHostLimiter limiter;
+		
+		public ExecuteAsyncRequest(HttpRequest request, Class<?> bindType, boolean bindList) {
+			this.request = request;
+			this.bindType = bindType;
+			this.bindList = bindList;
+		}
+		
+		public void scheduleDeadline(long millis) {
+			this.deadline = RestRequest.getScheduler().schedule(new Runnable() {
+				public void run() {
+					ExecuteAsyncRequest.this.abort(true);
+				}
+			}, millis, TimeUnit.MILLISECONDS);
+		}
+		
+		public void started() {
+			if (this.call != null) {
+				this.call.startedAt = System.nanoTime();
+				this.listener.started(this.call);
+			}
+		}
+		
+		public void headersReceived(int statusCode) {
+			if (this.call != null) {
+				this.call.headersAt = System.nanoTime();
+				this.call.statusCode = statusCode;
+				this.listener.headersReceived(this.call);
+			}
+		}
+		
+		public void bodyReceived() {
+			if (this.call != null) {
+				this.call.bodyAt = System.nanoTime();
+				this.call.wireBytes = (this.counter != null) ? this.counter.getCount() : 0;
+				this.call.decodedBytes = (this.decoded != null) ? this.decoded.getCount() : 0;
+				this.listener.bodyReceived(this.call);
+			}
+		}
+		
+		public void clearDeadline() {
+			if (this.deadline != null) {
+				this.deadline.cancel(false);
+			}
+		}
+		
+		// called on the main thread once the host's limiter has given us a slot
+		public void startLimited(RestHostLimiter limiter, HttpRequest request) {
+			synchronized (this) {
+				this.limiter = limiter;
+			}
+			
+			if (this.isCancelled() == true) {
+				this.releaseSlot(0, 0, null);
+				return;
+			}
+			this.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, request);
+		}
+		
+		// gives the limiter's slot back, only the first call counts
+		public synchronized void releaseSlot(int statusCode, long latencyMillis, String retryAfter) {
+			if (this.limiter != null) {
+				this.limiter.release(statusCode, latencyMillis, retryAfter);
+				this.limiter = null;
+			}
+		}
+		
+		public void abort(boolean deadlineExceeded) {
+			this.deadlineExceeded = deadlineExceeded;
+			this.aborted = true;
+			this.clearDeadline();
+			
+			if (deadlineExceeded == false) {
+				// the user doesn't want the result anymore, so don't deliver it
+				this.cancel(true);
+			}
+			
+			if (this.request instanceof AbortableHttpRequest) {
+				// closing the connection can block, so keep it off the UI thread
+				RestRequest.getScheduler().execute(new Runnable() {
+					public void run() {
+						((AbortableHttpRequest)ExecuteAsyncRequest.this.request).abort();
+					}
+				});
+			}
+		}
+		
 		@Override
-		protected Bundle doInBackground(HttpRequest... requests) {
+		protected Message doInBackground(HttpRequest... requests) {
 			for (HttpRequest request : requests) {
-				return RestRequest.this.executeRequest(request);
+				Bundle b = RestRequest.this.executeRequest(request, this);
+				Message m = new Message();
+				
+				try {
+					boolean parsed = b.containsKey("parsed");
+					if (b.containsKey("notModified") == true && this.cachedCopy != null && this.deliverCachedCopy == true) {
+						this.result = RestCache.read(this.cachedCopy, RestRequest.this.codec);
+						parsed = true;
+					} else if (b.containsKey("file") == true || b.containsKey("spill") == true) {
+						// too big to parse as it came in, so it's read from the file now that it's all there
+						String path = b.containsKey("file") ? b.getString("file") : b.getString("spill");
+						this.result = RestCache.read(new File(path), RestRequest.this.codec);
+						b.remove("file");
+						b.remove("spill");
+						b.putBoolean("parsed", true);
+						parsed = true;
+					}
+					
+					if (parsed == true) {
+						if (this.bindType != null && this.result != null) {
+							this.result = RestBinder.bind(this.result, this.bindType, this.bindList);
+						}
+						if (this.call != null) {
+							this.call.parsedAt = System.nanoTime();
+							this.listener.parsed(this.call);
+						}
+					}
+				} catch (JSONException e) {
+					e.printStackTrace();
+					b = new Bundle();
+					b.putString("error", e.getMessage());
+					this.result = null;
+				} catch (IOException e) {
+					e.printStackTrace();
+					b = new Bundle();
+					b.putString("error", e.getMessage());
+					this.result = null;
+				}
+				
+				// a spill file has been read by now, if it's wanted at all
+				this.discardSpill();
+				
+				m.obj = this.result;
+				this.result = null;
+				m.setData(b);
+				return m;
 			}
 			return null;
 		}
 
+		// the spill file isn't wanted by anyone, the request failed or was cancelled
+		public void discardSpill() {
+			if (this.spill != null) {
+				this.spill.delete();
+				this.spill = null;
+			}
+		}
+		
+		private void releaseMemory() {
+			RestMemoryBudget.release(this.reserved);
+			this.reserved = 0;
+		}
+
 		@Override
-		protected void onPostExecute(Bundle b) {
-		    Message m = new Message();
-	        m.setData(b);
+		protected void onCancelled() {
+			// if it was cancelled before it got to run, the slot is still ours
+			this.releaseSlot(0, 0, null);
+			// and nobody is going to see the response
+			this.releaseMemory();
+			this.discardSpill();
+		}
+
+		@Override
+		protected void onPostExecute(Message m) {
 	        m.setTarget(RestRequest.this.handler);
 	        m.sendToTarget();
+	        
+	        if (this.reserved > 0) {
+	        	// the handler still has the response to parse, so the memory is given back once it's done with it
+	        	// (this runs after the message, they're on the same queue)
+	        	RestRequest.this.handler.post(new Runnable() {
+	        		public void run() {
+	        			ExecuteAsyncRequest.this.releaseMemory();
+	        		}
+	        	});
+	        }
+		}
+	}
+	
+	/*
+	 * What the codec reads a response from. Whatever is read is also written to the file (if there is one), and
+	 * memory for the parsed result is reserved as it goes. Closing it is left to finish, so that what's left can
+	 * still be drained into the file if the codec stops early.
+	 */
+	private static class BodyInputStream extends FilterInputStream {
+		private OutputStream file;
+		private ExecuteAsyncRequest task;
+		private boolean reserving;
+		private boolean outOfMemory = false;
+		private long count = 0;
+		
+		public BodyInputStream(InputStream in, OutputStream file, ExecuteAsyncRequest task, boolean reserving) {
+			super(in);
+			this.file = file;
+			this.task = task;
+			this.reserving = reserving;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			if (b != -1) {
+				if (this.file != null) {
+					this.file.write(b);
+				}
+				this.counted(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte [] buffer, int offset, int length) throws IOException {
+			int read = this.in.read(buffer, offset, length);
+			if (read > 0) {
+				if (this.file != null) {
+					this.file.write(buffer, offset, read);
+				}
+				this.counted(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes still have to go to the file
+			byte [] buffer = new byte[(int)Math.min(n, 8192)];
+			int read = this.read(buffer, 0, buffer.length);
+			return Math.max(read, 0);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		@Override
+		public void close() {
+			// see finish
+		}
+		
+		public void drain() throws IOException {
+			this.reserving = false;
+			byte [] buffer = new byte[8192];
+			while (this.read(buffer, 0, buffer.length) != -1) {
+				// just for the file
+			}
+		}
+		
+		public void finish() throws IOException {
+			this.in.close();
+		}
+		
+		private void counted(int read) throws IOException {
+			long maxSize = RestMemoryBudget.getMaxResponseSize();
+			if (maxSize > 0 && this.task.decoded.getCount() > maxSize) {
+				throw new IOException(RestMemoryBudget.tooLarge(this.task.decoded.getCount()));
+			}
+			
+			this.count += read;
+			// the parsed result takes up at least twice what it did as UTF-8
+			if (this.reserving == false || this.count * 2 <= this.task.reserved) {
+				return;
+			}
+			
+			long more = Math.max(this.count * 2 - this.task.reserved, RestMemoryBudget.CHUNK);
+			// it only waits for memory if it isn't holding any yet and has nowhere else to put the response.
+			// waiting while holding some can leave two responses waiting on each other
+			if (RestMemoryBudget.reserve(more, this.file == null && this.task.reserved == 0) == true) {
+				this.task.reserved += more;
+			} else if (this.file != null) {
+				this.outOfMemory = true;
+				this.reserving = false;
+				throw new IOException("Not enough memory to parse the response, it will be read from the file");
+			} else {
+				throw new IOException("Not enough memory to read the response");
+			}
 		}
 	}
 	
-	// taken from http://stackoverflow.com/questions/2642777/trusting-all-certificates-using-httpclient-over-https
-	private DefaultHttpClient getNewHttpClient() {
-		if (this.acceptAllSslCertificates == true) {
-		    try {
-		        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-		        trustStore.load(null, null);
-	
-		        SSLSocketFactory sf = new MySSLSocketFactory(trustStore);
-		        sf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-	
-		        HttpParams params = new BasicHttpParams();
-		        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-		        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-		        
-		        // Set the timeout in milliseconds until a connection is established.
-			    // The default value is zero, that means the timeout is not used. 
-			    int timeoutConnection = 15000;
-			    HttpConnectionParams.setConnectionTimeout(params, timeoutConnection);
-			    
-			    // Set the default socket timeout (SO_TIMEOUT) 
-			    // in milliseconds which is the timeout for waiting for data.
-			    int timeoutSocket = 45000;
-			    HttpConnectionParams.setSoTimeout(params, timeoutSocket);
-	
-			    SchemeRegistry registry = new SchemeRegistry();
-		        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), this.port));
-		        registry.register(new Scheme("https", sf, this.sslPort));
-	
-		        ClientConnectionManager ccm = new ThreadSafeClientConnManager(params, registry);
-	
-		        return new DefaultHttpClient(ccm, params);
-		    } catch (Exception e) {
-		        return new DefaultHttpClient();
-		    }
+	private static class CountingInputStream extends FilterInputStream {
+		private volatile long count = 0;
+		
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		public long getCount() {
+			return this.count;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				this.count++;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte [] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				this.count += read;
+			}
+			return read;
+		}
+	}
+	
+	/*
+	 * Resolves the host and opens a connection to it in the background (including the TLS handshake), and
+	 * leaves it in the pool, so the first real request doesn't have to wait for any of that.
+	 */
+	public void warmUp() {
+		final HttpHost target = this.getTargetHost();
+		
+		RestRequest.getScheduler().execute(new Runnable() {
+			public void run() {
+				// the first client creates the shared pool (and its SSL socket factory), so that's done here as well
+				DefaultHttpClient client = RestRequest.this.getHttpClient();
+				ManagedClientConnection connection = null;
+				try {
+					InetAddress.getAllByName(target.getHostName());
+					
+					HttpRoute route = new HttpRoute(target, null, target.getSchemeName().equals("https"));
+					ClientConnectionManager ccm = client.getConnectionManager();
+					connection = ccm.requestConnection(route, null).getConnection(15000, TimeUnit.MILLISECONDS);
+					if (connection.isOpen() == false) {
+						connection.open(route, new BasicHttpContext(), client.getParams());
+					}
+					connection.markReusable();
+					ccm.releaseConnection(connection, 30, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					// not a problem, the request will just connect on its own
+					if (connection != null) {
+						client.getConnectionManager().releaseConnection(connection, 0, TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+		});
+	}
+	
+	private HttpHost getTargetHost() {
+		if (this.useSsl == false) {
+			return new HttpHost(this.host, this.port, "http");
 		} else {
-	        return new DefaultHttpClient();
+			return new HttpHost(this.host, this.sslPort, "https");
 		}
 	}
+	
+	// one connection pool for everyone, so connections and TLS sessions get reused across requests and screens
+	private static synchronized ClientConnectionManager getConnectionManager() {
+		if (RestRequest.connectionManager == null) {
+			RestRequest.connectionManager = RestRequest.createConnectionManager();
+		}
+		return RestRequest.connectionManager;
+	}
+	
+	private static ClientConnectionManager createConnectionManager() {
+		HttpParams params = RestRequest.createParams();
+		
+	    // the default is 2 per host, which isn't much once every screen shares the pool
+	    ConnManagerParams.setMaxTotalConnections(params, 20);
+	    ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(8));
+	    
+	    SSLSocketFactory sf;
+	    try {
+	        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+	        trustStore.load(null, null);
+	        
+	        // a single SSLContext, so its session cache lets later handshakes resume instead of starting over
+	        SSLContext sslContext = SSLContext.getInstance("TLS");
+	        sslContext.init(null, null, null);
+	        sslContext.getClientSessionContext().setSessionCacheSize(32);
+	        sslContext.getClientSessionContext().setSessionTimeout(24 * 60 * 60);
+	        
+	        sf = new MySSLSocketFactory(trustStore, sslContext);
+	    } catch (Exception e) {
+	    	sf = SSLSocketFactory.getSocketFactory();
+	    }
+	    
+	    // the ports are always given with the host, so these are just the defaults
+	    SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", sf, 443));
+        
+        return new ThreadSafeClientConnManager(params, registry);
+	}
+	
+	private static HttpParams createParams() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        
+        // Set the timeout in milliseconds until a connection is established.
+	    // The default value is zero, that means the timeout is not used. 
+	    int timeoutConnection = 15000;
+	    HttpConnectionParams.setConnectionTimeout(params, timeoutConnection);
+	    
+	    // Set the default socket timeout (SO_TIMEOUT) 
+	    // in milliseconds which is the timeout for waiting for data.
+	    int timeoutSocket = 45000;
+	    HttpConnectionParams.setSoTimeout(params, timeoutSocket);
+	    
+	    return params;
+	}
+	
+	private static class MySSLSocketFactory extends SSLSocketFactory {
+	    private SSLContext sslContext;
 
-	// taken from http://stackoverflow.com/questions/2642777/trusting-all-certificates-using-httpclient-over-https
-	private class MySSLSocketFactory extends SSLSocketFactory {
-	    SSLContext sslContext = SSLContext.getInstance("TLS");
-
-	    public MySSLSocketFactory(KeyStore truststore) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, UnrecoverableKeyException {
+	    public MySSLSocketFactory(KeyStore truststore, SSLContext sslContext) throws NoSuchAlgorithmException, KeyManagementException, KeyStoreException, UnrecoverableKeyException {
 	        super(truststore);
-
-	        TrustManager tm = new X509TrustManager() {
-	            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-	            }
-
-	            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-	            }
-
-	            public X509Certificate[] getAcceptedIssuers() {
-	                return null;
-	            }
-	        };
-
-	        this.sslContext.init(null, new TrustManager[] { tm }, null);
+	        this.sslContext = sslContext;
 	    }
 
 	    @Override
 	    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
-	        return this.sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+	        SSLSocket s = (SSLSocket)this.sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+	        this.getHostnameVerifier().verify(host, s);
+	        return s;
 	    }
 
 	    @Override
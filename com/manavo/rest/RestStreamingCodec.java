@@ -0,0 +1,650 @@
+package com.manavo.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Reads and writes UTF-8 bytes directly, without going through an intermediate String of the whole body.
+ * The results are the same JSONObject/JSONArray types that the org.json parser gives back, so callbacks don't need to change.
+ * Buffers are kept per thread and reused between calls, so an instance can be shared without calls waiting on each other.
+ */
+public class RestStreamingCodec implements RestCodec {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<Reader> readers = new ThreadLocal<Reader>() {
+		@Override
+		protected Reader initialValue() {
+			return new Reader();
+		}
+	};
+
+	private static final ThreadLocal<Writer> writers = new ThreadLocal<Writer>() {
+		@Override
+		protected Writer initialValue() {
+			return new Writer();
+		}
+	};
+
+	// if the thread's reader is already in use further up the stack, a throwaway one is used instead
+	private static Reader reader() {
+		Reader reader = readers.get();
+		if (reader.busy == true) {
+			return new Reader();
+		}
+		return reader;
+	}
+
+	private static Writer writer() {
+		Writer writer = writers.get();
+		if (writer.busy == true) {
+			return new Writer();
+		}
+		return writer;
+	}
+
+	public Object parse(String data) throws JSONException {
+		Reader reader = RestStreamingCodec.reader();
+		try {
+			byte [] bytes = data.getBytes("UTF-8");
+			reader.busy = true;
+			reader.in = null;
+			reader.buffer = bytes;
+			reader.position = 0;
+			reader.limit = bytes.length;
+
+			int c = reader.skipWhitespace();
+			if (c != '{' && c != '[') {
+				// not JSON, so just hand back the text
+				return data;
+			}
+			return reader.readDocument();
+		} catch (IOException e) {
+			throw new JSONException(e.getMessage());
+		} finally {
+			reader.buffer = null;
+			reader.busy = false;
+		}
+	}
+
+	public Object parse(InputStream in) throws IOException, JSONException {
+		Reader reader = RestStreamingCodec.reader();
+		reader.busy = true;
+		reader.in = in;
+		reader.buffer = reader.streamBuffer;
+		reader.position = 0;
+		reader.limit = 0;
+
+		try {
+			int c = reader.skipWhitespace();
+			if (c != '{' && c != '[') {
+				return reader.readRemaining();
+			}
+			return reader.readDocument();
+		} finally {
+			reader.in = null;
+			reader.buffer = null;
+			reader.busy = false;
+			in.close();
+		}
+	}
+
+	public String serialize(Object data) throws JSONException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			this.write(data, out);
+			return out.toString("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new JSONException(e.getMessage());
+		} catch (IOException e) {
+			throw new JSONException(e.getMessage());
+		}
+	}
+
+	public void write(Object data, OutputStream out) throws IOException, JSONException {
+		Writer writer = RestStreamingCodec.writer();
+		writer.busy = true;
+		writer.out = out;
+		writer.outPosition = 0;
+
+		try {
+			writer.writeValue(data);
+			writer.flush();
+		} finally {
+			writer.out = null;
+			writer.busy = false;
+		}
+	}
+
+	private static class Reader {
+		private boolean busy = false;
+
+		private InputStream in;
+		private byte [] streamBuffer = new byte[BUFFER_SIZE];
+		private byte [] buffer;
+		private int position;
+		private int limit;
+
+		private char [] chars = new char[256];
+		// keys repeat for every object in a list, so we keep the strings around instead of creating new ones for each row
+		private String [] keyCache = new String[256];
+
+		// a top level value, with nothing but whitespace after it
+		private Object readDocument() throws IOException, JSONException {
+			Object value = this.readValue();
+			if (this.skipWhitespace() != -1) {
+				throw new JSONException("Unexpected data after the end at byte "+this.position);
+			}
+			return value;
+		}
+
+		private boolean fill() throws IOException {
+			if (this.in == null) {
+				return false;
+			}
+
+			int read = this.in.read(this.buffer, 0, this.buffer.length);
+			if (read <= 0) {
+				return false;
+			}
+
+			this.position = 0;
+			this.limit = read;
+			return true;
+		}
+
+		private int read() throws IOException {
+			if (this.position == this.limit && this.fill() == false) {
+				return -1;
+			}
+			return this.buffer[this.position++] & 0xFF;
+		}
+
+		private int peek() throws IOException {
+			if (this.position == this.limit && this.fill() == false) {
+				return -1;
+			}
+			return this.buffer[this.position] & 0xFF;
+		}
+
+		private int skipWhitespace() throws IOException {
+			int c;
+			while ((c = this.peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				this.position++;
+			}
+			return c;
+		}
+
+		private String readRemaining() throws IOException {
+			ByteArrayOutputStream rest = new ByteArrayOutputStream();
+			do {
+				rest.write(this.buffer, this.position, this.limit - this.position);
+				this.position = this.limit;
+			} while (this.fill());
+
+			return rest.toString("UTF-8");
+		}
+
+		private Object readValue() throws IOException, JSONException {
+			int c = this.skipWhitespace();
+
+			switch (c) {
+				case '{':
+					return this.readObject();
+				case '[':
+					return this.readArray();
+				case '"':
+					this.position++;
+					return new String(this.chars, 0, this.readString());
+				case 't':
+					this.expect("true");
+					return Boolean.TRUE;
+				case 'f':
+					this.expect("false");
+					return Boolean.FALSE;
+				case 'n':
+					this.expect("null");
+					return JSONObject.NULL;
+				case -1:
+					throw new JSONException("Unexpected end of data");
+				default:
+					return this.readNumber();
+			}
+		}
+
+		private JSONObject readObject() throws IOException, JSONException {
+			JSONObject o = new JSONObject();
+			this.position++;
+
+			if (this.skipWhitespace() == '}') {
+				this.position++;
+				return o;
+			}
+
+			while (true) {
+				if (this.skipWhitespace() != '"') {
+					throw new JSONException("Expected a key at byte "+this.position);
+				}
+				this.position++;
+				String key = this.readKey();
+
+				if (this.skipWhitespace() != ':') {
+					throw new JSONException("Expected ':' after key "+key);
+				}
+				this.position++;
+
+				o.put(key, this.readValue());
+
+				int c = this.skipWhitespace();
+				this.position++;
+				if (c == '}') {
+					return o;
+				} else if (c != ',') {
+					throw new JSONException("Expected ',' or '}' after value of "+key);
+				}
+			}
+		}
+
+		private JSONArray readArray() throws IOException, JSONException {
+			JSONArray a = new JSONArray();
+			this.position++;
+
+			if (this.skipWhitespace() == ']') {
+				this.position++;
+				return a;
+			}
+
+			while (true) {
+				a.put(this.readValue());
+
+				int c = this.skipWhitespace();
+				this.position++;
+				if (c == ']') {
+					return a;
+				} else if (c != ',') {
+					throw new JSONException("Expected ',' or ']' in array");
+				}
+			}
+		}
+
+		private String readKey() throws IOException, JSONException {
+			int length = this.readString();
+
+			int hash = 0;
+			for (int i=0; i<length; i++) {
+				hash = 31 * hash + this.chars[i];
+			}
+			int slot = (hash ^ (hash >>> 8)) & (this.keyCache.length - 1);
+
+			String cached = this.keyCache[slot];
+			if (cached != null && cached.length() == length) {
+				boolean same = true;
+				for (int i=0; i<length; i++) {
+					if (cached.charAt(i) != this.chars[i]) {
+						same = false;
+						break;
+					}
+				}
+				if (same) {
+					return cached;
+				}
+			}
+
+			String key = new String(this.chars, 0, length);
+			this.keyCache[slot] = key;
+			return key;
+		}
+
+		// decodes a string (the opening quote is already consumed) into this.chars, and returns its length
+		private int readString() throws IOException, JSONException {
+			int length = 0;
+
+			while (true) {
+				int b = this.read();
+				if (b == -1) {
+					throw new JSONException("Unterminated string");
+				}
+
+				if (length + 2 > this.chars.length) {
+					char [] grown = new char[this.chars.length * 2];
+					System.arraycopy(this.chars, 0, grown, 0, length);
+					this.chars = grown;
+				}
+
+				if (b == '"') {
+					return length;
+				} else if (b < 0x20) {
+					// control characters have to be escaped
+					throw new JSONException("Unescaped control character at byte "+this.position);
+				} else if (b == '\\') {
+					int e = this.read();
+					switch (e) {
+						case '"':
+						case '\\':
+						case '/':
+							this.chars[length++] = (char)e;
+							break;
+						case 'b':
+							this.chars[length++] = '\b';
+							break;
+						case 'f':
+							this.chars[length++] = '\f';
+							break;
+						case 'n':
+							this.chars[length++] = '\n';
+							break;
+						case 'r':
+							this.chars[length++] = '\r';
+							break;
+						case 't':
+							this.chars[length++] = '\t';
+							break;
+						case 'u':
+							int value = 0;
+							for (int i=0; i<4; i++) {
+								int h = Character.digit(this.read(), 16);
+								if (h == -1) {
+									throw new JSONException("Invalid \\u escape");
+								}
+								value = (value << 4) | h;
+							}
+							this.chars[length++] = (char)value;
+							break;
+						default:
+							throw new JSONException("Invalid escape \\"+(char)e);
+					}
+				} else if (b < 0x80) {
+					this.chars[length++] = (char)b;
+				} else if ((b & 0xE0) == 0xC0) {
+					int codePoint = ((b & 0x1F) << 6) | this.readContinuation();
+					// overlong encodings aren't valid UTF-8
+					if (codePoint < 0x80) {
+						throw new JSONException("Invalid UTF-8 at byte "+this.position);
+					}
+					this.chars[length++] = (char)codePoint;
+				} else if ((b & 0xF0) == 0xE0) {
+					int b2 = this.readContinuation();
+					int b3 = this.readContinuation();
+					int codePoint = ((b & 0x0F) << 12) | (b2 << 6) | b3;
+					// and neither are surrogates on their own
+					if (codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+						throw new JSONException("Invalid UTF-8 at byte "+this.position);
+					}
+					this.chars[length++] = (char)codePoint;
+				} else if ((b & 0xF8) == 0xF0) {
+					int b2 = this.readContinuation();
+					int b3 = this.readContinuation();
+					int b4 = this.readContinuation();
+					int codePoint = ((b & 0x07) << 18) | (b2 << 12) | (b3 << 6) | b4;
+					// F5-F7 would go past the last code point
+					if (codePoint < 0x10000 || codePoint > 0x10FFFF) {
+						throw new JSONException("Invalid UTF-8 at byte "+this.position);
+					}
+					codePoint -= 0x10000;
+					this.chars[length++] = (char)((codePoint >> 10) + 0xD800);
+					this.chars[length++] = (char)((codePoint & 0x3FF) + 0xDC00);
+				} else {
+					throw new JSONException("Invalid UTF-8 at byte "+this.position);
+				}
+			}
+		}
+
+		// the low six bits of a UTF-8 continuation byte, a sequence that's cut short isn't valid data
+		private int readContinuation() throws IOException, JSONException {
+			int b = this.read();
+			if (b == -1 || (b & 0xC0) != 0x80) {
+				throw new JSONException("Invalid UTF-8 at byte "+this.position);
+			}
+			return b & 0x3F;
+		}
+
+		private Object readNumber() throws IOException, JSONException {
+			int length = 0;
+			boolean integer = true;
+			int c;
+
+			while ((c = this.peek()) != -1 && ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')) {
+				if (c == '.' || c == 'e' || c == 'E') {
+					integer = false;
+				}
+				if (length == this.chars.length) {
+					char [] grown = new char[this.chars.length * 2];
+					System.arraycopy(this.chars, 0, grown, 0, length);
+					this.chars = grown;
+				}
+				this.chars[length++] = (char)c;
+				this.position++;
+			}
+
+			if (length == 0) {
+				throw new JSONException("Unexpected character '"+(char)c+"' at byte "+this.position);
+			}
+			if (this.isNumber(length) == false) {
+				throw new JSONException("Invalid number "+new String(this.chars, 0, length));
+			}
+
+			// same types as org.json would give us: Integer if it fits, then Long, otherwise Double
+			if (integer && length <= 18) {
+				long value = 0;
+				int i = (this.chars[0] == '-') ? 1 : 0;
+				if (i == length) {
+					throw new JSONException("Invalid number");
+				}
+				for (; i<length; i++) {
+					int digit = this.chars[i] - '0';
+					if (digit < 0 || digit > 9) {
+						throw new JSONException("Invalid number");
+					}
+					value = value * 10 + digit;
+				}
+				if (this.chars[0] == '-') {
+					value = -value;
+				}
+
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+					return Integer.valueOf((int)value);
+				}
+				return Long.valueOf(value);
+			}
+
+			String text = new String(this.chars, 0, length);
+			try {
+				if (integer) {
+					return Long.valueOf(text);
+				}
+				return Double.valueOf(text);
+			} catch (NumberFormatException e) {
+				try {
+					return Double.valueOf(text);
+				} catch (NumberFormatException e2) {
+					throw new JSONException("Invalid number "+text);
+				}
+			}
+		}
+
+		// -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?, so things like 1. 01 +1 and .5 aren't numbers
+		private boolean isNumber(int length) {
+			int i = 0;
+			if (this.chars[i] == '-') {
+				i++;
+			}
+
+			if (i < length && this.chars[i] == '0') {
+				i++;
+			} else {
+				int start = i;
+				i = this.skipDigits(i, length);
+				if (i == start || this.chars[start] == '0') {
+					return false;
+				}
+			}
+
+			if (i < length && this.chars[i] == '.') {
+				int start = ++i;
+				i = this.skipDigits(i, length);
+				if (i == start) {
+					return false;
+				}
+			}
+
+			if (i < length && (this.chars[i] == 'e' || this.chars[i] == 'E')) {
+				i++;
+				if (i < length && (this.chars[i] == '+' || this.chars[i] == '-')) {
+					i++;
+				}
+				int start = i;
+				i = this.skipDigits(i, length);
+				if (i == start) {
+					return false;
+				}
+			}
+
+			return i == length;
+		}
+
+		private int skipDigits(int i, int length) {
+			while (i < length && this.chars[i] >= '0' && this.chars[i] <= '9') {
+				i++;
+			}
+			return i;
+		}
+
+		private void expect(String literal) throws IOException, JSONException {
+			for (int i=0; i<literal.length(); i++) {
+				if (this.read() != literal.charAt(i)) {
+					throw new JSONException("Expected "+literal);
+				}
+			}
+		}
+	}
+
+	private static class Writer {
+		private boolean busy = false;
+
+		private OutputStream out;
+		private byte [] outBuffer = new byte[BUFFER_SIZE];
+		private int outPosition;
+
+		private void flush() throws IOException {
+			if (this.outPosition > 0) {
+				this.out.write(this.outBuffer, 0, this.outPosition);
+				this.outPosition = 0;
+			}
+		}
+
+		private void writeByte(int b) throws IOException {
+			if (this.outPosition == this.outBuffer.length) {
+				this.flush();
+			}
+			this.outBuffer[this.outPosition++] = (byte)b;
+		}
+
+		private void writeAscii(String s) throws IOException {
+			for (int i=0; i<s.length(); i++) {
+				this.writeByte(s.charAt(i));
+			}
+		}
+
+		private void writeValue(Object value) throws IOException, JSONException {
+			if (value == null || value == JSONObject.NULL) {
+				this.writeAscii("null");
+			} else if (value instanceof JSONObject) {
+				JSONObject o = (JSONObject)value;
+				boolean first = true;
+
+				this.writeByte('{');
+				Iterator<?> keys = o.keys();
+				while (keys.hasNext()) {
+					String key = (String)keys.next();
+					if (first == false) {
+						this.writeByte(',');
+					}
+					first = false;
+
+					this.writeString(key);
+					this.writeByte(':');
+					this.writeValue(o.opt(key));
+				}
+				this.writeByte('}');
+			} else if (value instanceof JSONArray) {
+				JSONArray a = (JSONArray)value;
+
+				this.writeByte('[');
+				for (int i=0; i<a.length(); i++) {
+					if (i > 0) {
+						this.writeByte(',');
+					}
+					this.writeValue(a.opt(i));
+				}
+				this.writeByte(']');
+			} else if (value instanceof Number) {
+				this.writeAscii(JSONObject.numberToString((Number)value));
+			} else if (value instanceof Boolean) {
+				this.writeAscii(value.toString());
+			} else {
+				this.writeString(value.toString());
+			}
+		}
+
+		private void writeString(String s) throws IOException {
+			this.writeByte('"');
+
+			for (int i=0; i<s.length(); i++) {
+				char c = s.charAt(i);
+
+				if (c == '"' || c == '\\') {
+					this.writeByte('\\');
+					this.writeByte(c);
+				} else if (c < 0x20) {
+					this.writeByte('\\');
+					switch (c) {
+						case '\b':
+							this.writeByte('b');
+							break;
+						case '\f':
+							this.writeByte('f');
+							break;
+						case '\n':
+							this.writeByte('n');
+							break;
+						case '\r':
+							this.writeByte('r');
+							break;
+						case '\t':
+							this.writeByte('t');
+							break;
+						default:
+							this.writeAscii("u00");
+							this.writeByte(Character.forDigit(c >> 4, 16));
+							this.writeByte(Character.forDigit(c & 0xF, 16));
+					}
+				} else if (c < 0x80) {
+					this.writeByte(c);
+				} else if (c < 0x800) {
+					this.writeByte(0xC0 | (c >> 6));
+					this.writeByte(0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, s.charAt(++i));
+					this.writeByte(0xF0 | (codePoint >> 18));
+					this.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+					this.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+					this.writeByte(0x80 | (codePoint & 0x3F));
+				} else {
+					this.writeByte(0xE0 | (c >> 12));
+					this.writeByte(0x80 | ((c >> 6) & 0x3F));
+					this.writeByte(0x80 | (c & 0x3F));
+				}
+			}
+
+			this.writeByte('"');
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.manavo.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/*
+ * Keeps cached endpoints fresh in the background, so screens can open straight from the cache
+ * (CACHE_THEN_NETWORK or CACHE_ELSE_NETWORK) instead of each one refreshing the data itself.
+ *
+ * Each endpoint is refreshed every so often with UPDATE_CACHE. The requests are conditional, so data
+ * that hasn't changed costs a 304 (and endpoints that keep not changing get checked less often).
+ * Refreshes that are due around the same time go out together, so the radio wakes up once, and
+ * there's some jitter so lots of devices don't all hit the server at the same moment.
+ *
+ * Give it apis that aren't used for anything else, created with the application context. A request's
+ * callbacks are set on its api, so entries that share an api take turns; give busy endpoints their own.
+ */
+public class RestSyncEngine {
+
+	public static class Entry {
+		private RestApi api;
+		private String url;
+		private long interval;
+		private List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+		private RestUpdateCallback callback;
+
+		private long nextRun = 0;
+		private int backoff = 1;
+		private int failures = 0;
+		private boolean running = false;
+
+		private Entry(RestApi api, String url, long interval) {
+			this.api = api;
+			this.url = url;
+			this.interval = interval;
+		}
+
+		public Entry addParameter(String name, Object value) {
+			this.parameters.add(new BasicNameValuePair(name, value.toString()));
+			return this;
+		}
+
+		// told when this endpoint has been refreshed, e.g. to reload a screen that's showing it
+		public Entry setCallback(RestUpdateCallback callback) {
+			this.callback = callback;
+			return this;
+		}
+	}
+
+	private ArrayList<Entry> entries = new ArrayList<Entry>();
+	private Handler handler = new Handler(Looper.getMainLooper());
+	private Random random = new Random();
+	private boolean started = false;
+
+	private double jitter = 0.1;
+	private long batchWindow = 60 * 1000;
+	private int maxBackoff = 8;
+	private long retryDelay = 30 * 1000;
+
+	private Runnable tick = new Runnable() {
+		public void run() {
+			RestSyncEngine.this.runDue();
+		}
+	};
+
+	/*
+	 * Refresh url (through api) every interval milliseconds
+	 */
+	public Entry add(RestApi api, String url, long interval) {
+		Entry entry = new Entry(api, url, interval);
+		this.entries.add(entry);
+		if (this.started == true) {
+			this.schedule();
+		}
+		return entry;
+	}
+
+	public void remove(Entry entry) {
+		this.entries.remove(entry);
+	}
+
+	// how much the intervals are randomly moved by, as a fraction of the interval
+	public RestSyncEngine setJitter(double jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+
+	// refreshes due within this many milliseconds of one another go out together
+	public RestSyncEngine setBatchWindow(long millis) {
+		this.batchWindow = millis;
+		return this;
+	}
+
+	// endpoints that keep coming back unchanged are checked up to this many times less often
+	public RestSyncEngine setMaxBackoff(int times) {
+		this.maxBackoff = times;
+		return this;
+	}
+
+	public void start() {
+		this.started = true;
+		this.schedule();
+	}
+
+	public void stop() {
+		this.started = false;
+		this.handler.removeCallbacks(this.tick);
+	}
+
+	// refresh everything now, e.g. when the app comes back to the foreground
+	public void syncNow() {
+		long now = SystemClock.elapsedRealtime();
+		for (Entry entry : this.entries) {
+			entry.nextRun = now;
+		}
+		this.handler.removeCallbacks(this.tick);
+		this.handler.post(this.tick);
+	}
+
+	private void runDue() {
+		if (this.started == false) {
+			return;
+		}
+
+		long now = SystemClock.elapsedRealtime();
+		for (Entry entry : new ArrayList<Entry>(this.entries)) {
+			if (entry.running == false && this.isBusy(entry.api) == false && entry.nextRun <= now + this.batchWindow) {
+				this.refresh(entry);
+			}
+		}
+		this.schedule();
+	}
+
+	private void schedule() {
+		if (this.started == false) {
+			return;
+		}
+
+		long next = Long.MAX_VALUE;
+		for (Entry entry : this.entries) {
+			// one waiting for its api is scheduled again when the api is done
+			if (entry.running == false && this.isBusy(entry.api) == false) {
+				next = Math.min(next, entry.nextRun);
+			}
+		}
+
+		this.handler.removeCallbacks(this.tick);
+		if (next != Long.MAX_VALUE) {
+			this.handler.postDelayed(this.tick, Math.max(0, next - SystemClock.elapsedRealtime()));
+		}
+	}
+
+	// whether another entry's refresh is still using api
+	private boolean isBusy(RestApi api) {
+		for (Entry entry : this.entries) {
+			if (entry.running == true && entry.api == api) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void refresh(final Entry entry) {
+		entry.running = true;
+
+		RestApi api = entry.api;
+		api.reset();
+		for (NameValuePair p : entry.parameters) {
+			api.addParameter(p.getName(), p.getValue());
+		}
+		api.setCachePolicy(RestCache.CachePolicy.UPDATE_CACHE);
+		api.setConditional(true);
+		api.setLoadingMessage(null);
+		api.setUpdateCallback(new RestUpdateCallback() {
+			public void updated(boolean changed) {
+				RestSyncEngine.this.onUpdated(entry, changed);
+			}
+		});
+		api.setErrorCallback(new RestErrorCallback() {
+			public void error(String message) {
+				RestSyncEngine.this.onFailed(entry);
+			}
+		});
+		api.get(entry.url);
+	}
+
+	private void onUpdated(Entry entry, boolean changed) {
+		entry.running = false;
+		entry.failures = 0;
+		entry.backoff = (changed == true) ? 1 : Math.min(entry.backoff * 2, this.maxBackoff);
+		entry.nextRun = SystemClock.elapsedRealtime() + this.jittered(entry.interval * entry.backoff);
+
+		if (entry.callback != null) {
+			entry.callback.updated(changed);
+		}
+		this.schedule();
+	}
+
+	private void onFailed(Entry entry) {
+		entry.running = false;
+		entry.failures++;
+		// try again sooner than the interval, backing off while it keeps failing
+		long delay = Math.min(entry.interval, this.retryDelay << Math.min(entry.failures - 1, 10));
+		entry.nextRun = SystemClock.elapsedRealtime() + this.jittered(delay);
+		this.schedule();
+	}
+
+	private long jittered(long millis) {
+		return millis + (long)((this.random.nextDouble() * 2 - 1) * this.jitter * millis);
+	}
+}
@@ -0,0 +1,6 @@
+package com.manavo.rest;
+
+
+public interface RestTypedCallback<T> {
+	public void success(T obj);
+}
@@ -0,0 +1,6 @@
+package com.manavo.rest;
+
+
+public interface RestUpdateCallback {
+	public void updated(boolean changed);
+}
@@ -0,0 +1,61 @@
+package com.manavo.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class RestBinderTest {
+
+	static class Item {
+		int id;
+		@RestField("created_at") String createdAt;
+		int [] counts;
+		String [] tags;
+		List<Long> ids;
+	}
+
+	static class WrongList {
+		LinkedList<String> names;
+	}
+
+	@Test
+	public void bindsFields() throws Exception {
+		Item item = RestBinder.bind(new JSONObject("{\"id\":\"7\",\"created_at\":\"today\",\"counts\":[1,2],\"tags\":[\"a\",null],\"ids\":[1,2]}"), Item.class);
+
+		assertEquals(7, item.id);
+		assertEquals("today", item.createdAt);
+		assertArrayEquals(new int[] {1, 2}, item.counts);
+		assertArrayEquals(new String[] {"a", null}, item.tags);
+		assertEquals(Long.valueOf(2), item.ids.get(1));
+	}
+
+	@Test
+	public void leavesNullsInPrimitiveArraysAsZero() throws Exception {
+		Item item = RestBinder.bind(new JSONObject("{\"counts\":[1,null,2]}"), Item.class);
+
+		assertArrayEquals(new int[] {1, 0, 2}, item.counts);
+	}
+
+	@Test
+	public void reportsReflectionFailuresAsJSONExceptions() throws Exception {
+		this.assertRejected("{\"counts\":[1,\"x\"]}", Item.class);
+		this.assertRejected("{\"counts\":{}}", Item.class);
+		this.assertRejected("{\"names\":[\"a\"]}", WrongList.class);
+	}
+
+	private void assertRejected(String input, Class<?> type) throws JSONException {
+		try {
+			RestBinder.bind(new JSONObject(input), type);
+			fail("Bound "+input+" to "+type.getSimpleName());
+		} catch (JSONException e) {
+			// expected
+		}
+	}
+}
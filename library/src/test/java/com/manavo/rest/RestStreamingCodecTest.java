@@ -0,0 +1,198 @@
+package com.manavo.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class RestStreamingCodecTest {
+
+	private static final String [] VALID = {
+		"{}",
+		"[]",
+		"  {\"a\" : 1 }  \n",
+		"{\"int\":1,\"negative\":-42,\"zero\":0,\"long\":12345678901,\"max\":9223372036854775807}",
+		"{\"double\":1.5,\"exponent\":1e3,\"both\":-2.5E-3,\"signed\":1e+2,\"zero\":0.0}",
+		"{\"t\":true,\"f\":false,\"n\":null}",
+		"[1,\"two\",3.0,[4,[5]],{\"six\":6},null,true]",
+		"{\"escapes\":\"\\\"\\\\\\/\\b\\f\\n\\r\\t\",\"unicode\":\"\\u00e9\\u4e2d\\ud83d\\ude00\"}",
+		"{\"utf8\":\"caf\u00e9 \u4e2d\u6587 \ud83d\ude00\"}",
+		"[{\"id\":1,\"tags\":[\"a\",\"b\"]},{\"id\":2,\"tags\":[]},{\"id\":3,\"tags\":[\"a\"]}]",
+	};
+
+	private static final String [] INVALID = {
+		"{",
+		"[1,2",
+		"{\"a\":}",
+		"{\"a\" 1}",
+		"{a:1}",
+		"[1,]",
+		"[1 2]",
+		"{\"a\":1}x",
+		"[1][2]",
+		"[1.]",
+		"[.5]",
+		"[01]",
+		"[+1]",
+		"[-]",
+		"[1e]",
+		"[1e+]",
+		"[--1]",
+		"[tru]",
+		"[nul]",
+		"[\"unterminated]",
+		"[\"bad escape \\x\"]",
+		"[\"bad unicode \\u12g4\"]",
+		"[\"tab\tinside\"]",
+		"[\"newline\ninside\"]",
+	};
+
+	private RestStreamingCodec codec = new RestStreamingCodec();
+	private RestJsonCodec json = new RestJsonCodec();
+
+	@Test
+	public void parsesValidDocuments() throws Exception {
+		for (String input : VALID) {
+			Object fromString = this.codec.parse(input);
+			Object fromStream = this.codec.parse(new ByteArrayInputStream(input.getBytes("UTF-8")));
+
+			assertTrue(input, fromString instanceof JSONObject || fromString instanceof JSONArray);
+			assertSame(input, fromString, fromStream);
+		}
+	}
+
+	@Test
+	public void matchesOrgJson() throws Exception {
+		for (String input : VALID) {
+			assertSame(input, this.json.parse(input), this.codec.parse(input));
+		}
+	}
+
+	@Test
+	public void keepsNumberTypes() throws Exception {
+		JSONObject o = (JSONObject)this.codec.parse("{\"i\":2147483647,\"l\":2147483648,\"d\":0.5}");
+
+		assertEquals(Integer.class, o.get("i").getClass());
+		assertEquals(Long.class, o.get("l").getClass());
+		assertEquals(Double.class, o.get("d").getClass());
+	}
+
+	@Test
+	public void rejectsInvalidDocuments() throws Exception {
+		for (String input : INVALID) {
+			this.assertRejected(input, input.getBytes("UTF-8"));
+		}
+	}
+
+	@Test
+	public void rejectsInvalidUtf8() throws Exception {
+		int [][] sequences = {
+			// cut short
+			{0xC3},
+			{0xE4, 0xB8},
+			// not a continuation byte
+			{0xC3, 0x41},
+			// overlong
+			{0xC0, 0xAF},
+			{0xC1, 0xBF},
+			{0xE0, 0x80, 0xAF},
+			{0xF0, 0x80, 0x80, 0xAF},
+			// a surrogate on its own
+			{0xED, 0xA0, 0x80},
+			// past U+10FFFF
+			{0xF4, 0x90, 0x80, 0x80},
+			{0xF5, 0x80, 0x80, 0x80},
+			{0xF7, 0xBF, 0xBF, 0xBF},
+			// not a lead byte at all
+			{0x80},
+			{0xF8, 0x80, 0x80, 0x80, 0x80},
+			{0xFF},
+		};
+
+		for (int [] sequence : sequences) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write('[');
+			out.write('"');
+			for (int b : sequence) {
+				out.write(b);
+			}
+			out.write('"');
+			out.write(']');
+
+			this.assertRejected(toHex(sequence), out.toByteArray());
+		}
+	}
+
+	@Test
+	public void handsBackTextThatIsNotJson() throws Exception {
+		assertEquals("plain text", this.codec.parse("plain text"));
+		assertEquals("plain text", this.codec.parse(new ByteArrayInputStream("plain text".getBytes("UTF-8"))));
+	}
+
+	@Test
+	public void roundTrips() throws Exception {
+		for (String input : VALID) {
+			Object parsed = this.codec.parse(input);
+			assertSame(input, parsed, this.codec.parse(this.codec.serialize(parsed)));
+		}
+	}
+
+	private void assertRejected(String description, byte [] bytes) {
+		try {
+			this.codec.parse(new ByteArrayInputStream(bytes));
+			fail("Parsed invalid input "+description);
+		} catch (JSONException e) {
+			// expected
+		} catch (Exception e) {
+			fail("Wrong exception for "+description+": "+e);
+		}
+	}
+
+	private static String toHex(int [] bytes) {
+		StringBuilder s = new StringBuilder();
+		for (int b : bytes) {
+			s.append(Integer.toHexString(b)).append(' ');
+		}
+		return s.toString().trim();
+	}
+
+	// the same structure and values. Numbers are compared by value, org.json can give back BigDecimals where we give Doubles
+	private static void assertSame(String input, Object expected, Object actual) throws JSONException {
+		if (expected instanceof JSONObject) {
+			assertTrue(input, actual instanceof JSONObject);
+			JSONObject e = (JSONObject)expected;
+			JSONObject a = (JSONObject)actual;
+			assertEquals(input, e.length(), a.length());
+
+			Iterator<String> keys = e.keys();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				assertTrue(input+" missing "+key, a.has(key));
+				assertSame(input, e.get(key), a.get(key));
+			}
+		} else if (expected instanceof JSONArray) {
+			assertTrue(input, actual instanceof JSONArray);
+			JSONArray e = (JSONArray)expected;
+			JSONArray a = (JSONArray)actual;
+			assertEquals(input, e.length(), a.length());
+
+			for (int i=0; i<e.length(); i++) {
+				assertSame(input, e.get(i), a.get(i));
+			}
+		} else if (expected instanceof Number) {
+			assertTrue(input, actual instanceof Number);
+			assertEquals(input, ((Number)expected).doubleValue(), ((Number)actual).doubleValue(), 0);
+			assertEquals(input, ((Number)expected).longValue(), ((Number)actual).longValue());
+		} else {
+			assertEquals(input, expected, actual);
+		}
+	}
+}